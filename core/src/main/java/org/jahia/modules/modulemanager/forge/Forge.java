@@ -54,7 +54,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.binding.message.MessageBuilder;
 import org.springframework.binding.validation.ValidationContext;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Forge implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(Forge.class);
@@ -64,6 +67,8 @@ public class Forge implements Serializable {
     String user;
     String password;
     String id;
+    List<String> mirrors = new ArrayList<String>();
+    private transient String authorization;
 
     public String getUrl() {
         return url;
@@ -79,6 +84,7 @@ public class Forge implements Serializable {
 
     public void setUser(String user) {
         this.user = user;
+        this.authorization = null;
     }
 
     public String getPassword() {
@@ -87,6 +93,33 @@ public class Forge implements Serializable {
 
     public void setPassword(String password) {
         this.password = password;
+        this.authorization = null;
+    }
+
+    /**
+     * @return the URLs of the mirrors serving the same content as the forge
+     */
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    public void setMirrors(List<String> mirrors) {
+        this.mirrors = mirrors != null ? new ArrayList<String>(mirrors) : new ArrayList<String>();
+    }
+
+    /**
+     * @return the URL of the forge followed by the URLs of its mirrors
+     */
+    public List<String> getUrls() {
+        List<String> urls = new ArrayList<String>();
+        urls.add(url);
+        for (String mirror : mirrors) {
+            String mirrorUrl = StringUtils.removeEnd(StringUtils.trimToEmpty(mirror), "/");
+            if (!mirrorUrl.isEmpty() && !urls.contains(mirrorUrl)) {
+                urls.add(mirrorUrl);
+            }
+        }
+        return urls;
     }
 
     public String getId() {
@@ -97,8 +130,37 @@ public class Forge implements Serializable {
         this.id = id;
     }
 
+    /**
+     * @return the value of the Basic Authorization header sent to the forge, or <code>null</code> if no user is set
+     */
+    public String getAuthorization() {
+        if (authorization == null && !StringUtils.isEmpty(user)) {
+            authorization = "Basic " + Base64.encode((user + ":" + password).getBytes());
+        }
+        return authorization;
+    }
+
     public void validateView(ValidationContext context) {
         if (!StringUtils.equals((String) context.getUserValue("actionType"),"delete")) {
+            if (ForgeLocalRepository.isLocal(this)) {
+                // local repository, check the directory instead
+                try {
+                    if (!ForgeLocalRepository.getDirectory(url).isDirectory()) {
+                        context.getMessageContext().addMessage(new MessageBuilder()
+                                .error()
+                                .source("testUrl")
+                                .code("serverSettings.manageForges.error.httpError").arg(url + " is not a directory")
+                                .build());
+                    }
+                } catch (IOException e) {
+                    context.getMessageContext().addMessage(new MessageBuilder()
+                            .error()
+                            .source("testUrl")
+                            .code("serverSettings.manageForges.error.httpError").arg(e.getMessage())
+                            .build());
+                }
+                return;
+            }
             // try basic http connexion
             try {
                 GetMethod httpMethod = new GetMethod(url + "/contents/modules-repository.moduleList.json");
@@ -0,0 +1,260 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded on-disk cache of the artifacts downloaded from the forges.
+ * <p>
+ * Entries are keyed by download URL and published checksum, so that a re-published artifact is never served from the
+ * cache. The least recently used entries are evicted once the total size of the cache exceeds its maximum size.
+ * <p>
+ * Partial downloads are kept in a work directory so that a failed download can be resumed; the ones nobody resumed
+ * for a day are deleted when the cache is started and whenever entries are evicted.
+ */
+class ForgeArtifactCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForgeArtifactCache.class);
+
+    private static final String WORK_DIRECTORY = "work";
+    private static final String PARTIAL_FILE_EXTENSION = ".part";
+    private static final long PARTIAL_FILE_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+    private final File directory;
+    private final File workDirectory;
+    private final long maxSize;
+
+    ForgeArtifactCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.workDirectory = new File(directory, WORK_DIRECTORY);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param url the download URL of the artifact
+     * @param checksum the checksum published for the artifact, if any
+     * @return the cached artifact or <code>null</code> if it is not in the cache
+     */
+    public File get(String url, String checksum) {
+        File cached = getCacheFile(url, checksum);
+        if (!cached.isFile()) {
+            return null;
+        }
+        // the modification time is used as last access time for the LRU eviction
+        cached.setLastModified(System.currentTimeMillis());
+        return cached;
+    }
+
+    /**
+     * Moves a downloaded artifact into the cache and evicts the least recently used entries if needed.
+     *
+     * @param url the download URL of the artifact
+     * @param checksum the checksum published for the artifact, if any
+     * @param downloaded the downloaded file, located by {@link #getPartialFile(String, String)}
+     * @return the cached artifact, or the downloaded file itself if it is larger than the whole cache
+     * @throws IOException in case the file cannot be moved into the cache
+     */
+    public synchronized File put(String url, String checksum, File downloaded) throws IOException {
+        if (downloaded.length() > maxSize) {
+            logger.debug("Not caching {}, larger than the forge artifact cache", url);
+            return downloaded;
+        }
+        File cached = getCacheFile(url, checksum);
+        try {
+            Files.move(downloaded.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(downloaded.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        cached.setLastModified(System.currentTimeMillis());
+        evict(cached);
+        return cached;
+    }
+
+    /**
+     * @param file a file returned by {@link #put(String, String, File)}
+     * @return <code>true</code> if the file is an entry of the cache, <code>false</code> if it was not cached
+     */
+    public boolean isCached(File file) {
+        return directory.equals(file.getParentFile());
+    }
+
+    /**
+     * @param url the download URL of the artifact
+     * @param checksum the checksum published for the artifact, if any
+     * @return the file, on the same file system as the cache, the artifact is downloaded into before being cached
+     */
+    public File getPartialFile(String url, String checksum) {
+        return new File(workDirectory, getKey(url, checksum) + PARTIAL_FILE_EXTENSION);
+    }
+
+    /**
+     * Deletes the partial downloads of the cache that have not been resumed for a day.
+     */
+    public void deleteStalePartialFiles() {
+        deleteStalePartialFiles(workDirectory);
+    }
+
+    /**
+     * Deletes the partial downloads of the given directory that have not been resumed for a day. A download in
+     * progress keeps updating the modification time of its files.
+     *
+     * @param directory the directory the artifacts are downloaded into
+     */
+    static void deleteStalePartialFiles(File directory) {
+        final long expiration = System.currentTimeMillis() - PARTIAL_FILE_MAX_AGE;
+        File[] staleFiles = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                // the segments of a download are written next to its partial file
+                return file.isFile() && StringUtils.contains(file.getName(), PARTIAL_FILE_EXTENSION) && file.lastModified() < expiration;
+            }
+        });
+        if (staleFiles == null) {
+            return;
+        }
+        for (File staleFile : staleFiles) {
+            if (staleFile.delete()) {
+                logger.debug("Deleted abandoned partial download {}", staleFile);
+            }
+        }
+    }
+
+    /**
+     * Gives the caller its own copy of a cached artifact, which it is free to delete. A hard link is used when possible.
+     *
+     * @param cached the cached artifact
+     * @return a file the caller owns
+     * @throws IOException in case the copy cannot be created
+     */
+    public File checkout(File cached) throws IOException {
+        FileUtils.forceMkdir(workDirectory);
+        File copy = File.createTempFile("module", getExtension(cached.getName()), workDirectory);
+        FileUtils.deleteQuietly(copy);
+        try {
+            Files.createLink(copy.toPath(), cached.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            FileUtils.copyFile(cached, copy);
+        }
+        return copy;
+    }
+
+    private File getCacheFile(String url, String checksum) {
+        return new File(directory, getKey(url, checksum) + getExtension(url));
+    }
+
+    /**
+     * @return the key identifying an artifact by its download URL and published checksum
+     */
+    static String getKey(String url, String checksum) {
+        return DigestUtils.sha256Hex(url + "\n" + StringUtils.defaultString(checksum));
+    }
+
+    private static String getExtension(String url) {
+        // the extension of the last path segment, ignoring the query and fragment of the URL
+        String name = StringUtils.substringAfterLast("/" + StringUtils.substringBefore(StringUtils.substringBefore(url, "?"), "#"), "/");
+        return "." + StringUtils.substringAfterLast(name, ".");
+    }
+
+    private void evict(File added) {
+        deleteStalePartialFiles();
+        File[] entries = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile();
+            }
+        });
+        if (entries == null) {
+            return;
+        }
+        long totalSize = 0;
+        for (File entry : entries) {
+            totalSize += entry.length();
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+        // read the access times once, get() updates them concurrently and the sort needs stable keys
+        final Map<File, Long> accessTimes = new HashMap<File, Long>();
+        for (File entry : entries) {
+            accessTimes.put(entry, entry.lastModified());
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(accessTimes.get(f1), accessTimes.get(f2));
+            }
+        });
+        for (File entry : entries) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (entry.equals(added)) {
+                // the entry just added fits in the cache, evict older ones only
+                continue;
+            }
+            long size = entry.length();
+            if (entry.delete()) {
+                totalSize -= size;
+                logger.debug("Evicted {} from the forge artifact cache", entry);
+            }
+        }
+    }
+}
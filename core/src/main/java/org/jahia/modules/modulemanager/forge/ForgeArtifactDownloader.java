@@ -0,0 +1,565 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads artifacts from a forge into a partial file that survives failures: a new attempt resumes from the bytes
+ * already on disk with an HTTP range request. The SHA-256 digest is computed while the data is written and checked
+ * against the checksum published in the forge catalog, if any.
+ * <p>
+ * Large artifacts can be downloaded as several ranges in parallel, each written at its position in a preallocated
+ * file; the digest is then computed once the file is complete. Forges not supporting ranges get a single stream.
+ */
+class ForgeArtifactDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForgeArtifactDownloader.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ForgeHttpClients httpClients;
+    private final ForgeMirrorSelector mirrorSelector;
+    private final int maxAttempts;
+    private final int readTimeout;
+    private final ForgeBandwidthLimiter bandwidthLimiter;
+    private final long segmentedDownloadThreshold;
+    private final int segments;
+    private final ExecutorService segmentExecutor;
+
+    /**
+     * Thrown when a forge answers a range request with something else than the requested range.
+     */
+    private static class RangeNotSupportedException extends IOException {
+
+        private static final long serialVersionUID = -4390465911925573226L;
+
+        RangeNotSupportedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param httpClients the HTTP clients of the forges
+     * @param mirrorSelector the selector choosing the mirror each request is sent to
+     * @param maxAttempts the number of times a failed download is resumed before giving up
+     * @param readTimeout the time in milliseconds a forge may stay silent while sending an artifact
+     * @param bandwidthLimiter the limiter the downloaded bytes are accounted to, or <code>null</code>
+     * @param segmentedDownloadThreshold the size from which artifacts are downloaded as parallel segments, 0 to never do so
+     * @param segments the number of segments of a segmented download
+     * @param segmentExecutor the executor running the segments of a segmented download
+     */
+    ForgeArtifactDownloader(ForgeHttpClients httpClients, ForgeMirrorSelector mirrorSelector, int maxAttempts, int readTimeout,
+            ForgeBandwidthLimiter bandwidthLimiter, long segmentedDownloadThreshold, int segments, ExecutorService segmentExecutor) {
+        this.httpClients = httpClients;
+        this.mirrorSelector = mirrorSelector;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.readTimeout = readTimeout;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.segmentedDownloadThreshold = segmentedDownloadThreshold;
+        this.segments = segments;
+        this.segmentExecutor = segmentExecutor;
+    }
+
+    /**
+     * Downloads the artifact, resuming from the content of the partial file if it already exists.
+     *
+     * @param forge the forge hosting the artifact
+     * @param url the download URL of the artifact
+     * @param partial the file to download into, kept on failure so that the next call resumes from it
+     * @param checksum the SHA-256 checksum published for the artifact, or <code>null</code> if none
+     * @return <code>true</code> if the artifact has been downloaded, <code>false</code> if the forge does not provide it
+     * @throws IOException if the download keeps failing or the content does not match the checksum
+     */
+    public boolean download(Forge forge, String url, File partial, String checksum) throws IOException {
+        FileUtils.forceMkdir(partial.getParentFile());
+        // segments left by an interrupted process are preallocated, they cannot be told from downloaded bytes
+        FileUtils.deleteQuietly(getSegmentsFile(partial));
+        Set<String> failedBaseUrls = new HashSet<String>();
+        // a segmented download is not resumable, a partial file left by a single stream download is resumed instead
+        if (segmentedDownloadThreshold > 0 && segments > 1 && segmentExecutor != null && !(partial.isFile() && partial.length() > 0)) {
+            String baseUrl = selectBaseUrl(forge, url, failedBaseUrls);
+            String mirrorUrl = getMirrorUrl(forge, url, baseUrl);
+            long length = getSegmentableLength(forge, mirrorUrl, baseUrl);
+            long start = System.currentTimeMillis();
+            if (length >= segmentedDownloadThreshold && downloadSegments(forge, mirrorUrl, baseUrl, partial, length)) {
+                if (baseUrl != null) {
+                    mirrorSelector.recordTransfer(baseUrl, length, System.currentTimeMillis() - start);
+                }
+                verify(url, partial, checksum, digest(partial));
+                return true;
+            }
+        }
+        MessageDigest digest = null;
+        IOException lastFailure = null;
+        boolean complete = false;
+        for (int attempt = 1; attempt <= maxAttempts && !complete; attempt++) {
+            long offset = partial.isFile() ? partial.length() : 0;
+            String baseUrl = selectBaseUrl(forge, url, failedBaseUrls);
+            String mirrorUrl = getMirrorUrl(forge, url, baseUrl);
+            GetMethod httpMethod = new GetMethod(mirrorUrl);
+            if (forge.getAuthorization() != null) {
+                httpMethod.addRequestHeader("Authorization", forge.getAuthorization());
+            }
+            if (offset > 0) {
+                httpMethod.addRequestHeader("Range", "bytes=" + offset + "-");
+                ForgeHttpEncoding.acceptIdentity(httpMethod);
+            } else {
+                ForgeHttpEncoding.acceptCompressed(httpMethod);
+            }
+            httpMethod.getParams().setSoTimeout(readTimeout);
+            HttpClient httpClient = getHttpClient(forge, baseUrl);
+            try {
+                long requestTime = System.currentTimeMillis();
+                int status = httpClient.executeMethod(httpMethod);
+                boolean append;
+                if (status == HttpServletResponse.SC_PARTIAL_CONTENT && offset > 0 && isResumedAt(httpMethod, offset)) {
+                    append = true;
+                } else if (status == HttpServletResponse.SC_OK) {
+                    append = false;
+                } else if (status == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+                    if (isCompleteAt(httpMethod, offset)) {
+                        // the partial file is already complete
+                        digest = digest(partial);
+                        lastFailure = null;
+                        complete = true;
+                        break;
+                    }
+                    // the partial file is stale or longer than the artifact, restart from the first byte without
+                    // counting it as a failed attempt
+                    logger.info("Discarding the {} bytes of {} already downloaded from {}", offset, partial, mirrorUrl);
+                    if (!FileUtils.deleteQuietly(partial)) {
+                        throw new IOException("Unable to delete " + partial);
+                    }
+                    attempt--;
+                    continue;
+                } else {
+                    logger.error("Unable to download {}, server returned status {}", mirrorUrl, status);
+                    if (!failOver(forge, baseUrl, failedBaseUrls)) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (baseUrl != null) {
+                    mirrorSelector.recordResponse(baseUrl, System.currentTimeMillis() - requestTime);
+                }
+                digest = append ? digest(partial) : newDigest();
+                if (append) {
+                    logger.info("Resuming download of {} from byte {}", mirrorUrl, offset);
+                }
+                // the content length of a compressed body does not apply to the inflated bytes, the gzip trailer is
+                // what reveals a truncated transfer then
+                long contentLength = ForgeHttpEncoding.isCompressed(httpMethod) ? -1 : httpMethod.getResponseContentLength();
+                long transferTime = System.currentTimeMillis();
+                long transferred = transfer(ForgeHttpEncoding.getResponseBodyAsStream(httpMethod), contentLength, partial, append, digest);
+                if (baseUrl != null) {
+                    mirrorSelector.recordTransfer(baseUrl, transferred, System.currentTimeMillis() - transferTime);
+                }
+                lastFailure = null;
+                complete = true;
+            } catch (IOException e) {
+                logger.warn("Download attempt {}/{} of {} failed: {}", attempt, maxAttempts, mirrorUrl, e.getMessage());
+                lastFailure = e;
+                failOver(forge, baseUrl, failedBaseUrls);
+            } finally {
+                httpMethod.releaseConnection();
+            }
+        }
+        if (!complete) {
+            if (lastFailure != null) {
+                throw lastFailure;
+            }
+            return false;
+        }
+        verify(url, partial, checksum, digest);
+        return true;
+    }
+
+    /**
+     * Returns the forge or mirror URL the next request for the artifact should be sent to, preferring the ones that
+     * have not failed yet for this artifact, or <code>null</code> if the artifact is not hosted on the forge itself.
+     */
+    private String selectBaseUrl(Forge forge, String url, Set<String> failedBaseUrls) {
+        if (ForgeMirrorSelector.getBaseUrl(forge, url) == null) {
+            return null;
+        }
+        List<String> candidates = mirrorSelector.getCandidates(forge);
+        for (String candidate : candidates) {
+            if (!failedBaseUrls.contains(candidate)) {
+                return candidate;
+            }
+        }
+        return candidates.get(0);
+    }
+
+    /**
+     * Records a failure of the mirror.
+     *
+     * @return <code>true</code> if another mirror can be tried
+     */
+    private boolean failOver(Forge forge, String baseUrl, Set<String> failedBaseUrls) {
+        if (baseUrl == null) {
+            return false;
+        }
+        mirrorSelector.recordFailure(baseUrl);
+        failedBaseUrls.add(baseUrl);
+        return !failedBaseUrls.containsAll(forge.getUrls());
+    }
+
+    private static String getMirrorUrl(Forge forge, String url, String baseUrl) {
+        return baseUrl != null ? ForgeMirrorSelector.rewrite(forge, url, baseUrl) : url;
+    }
+
+    private HttpClient getHttpClient(Forge forge, String baseUrl) {
+        return baseUrl != null ? httpClients.getHttpClient(forge, baseUrl) : httpClients.getHttpClient(forge);
+    }
+
+    /**
+     * Returns the length of the artifact if the forge serves it by ranges, -1 otherwise.
+     */
+    private long getSegmentableLength(Forge forge, String url, String baseUrl) {
+        HeadMethod httpMethod = new HeadMethod(url);
+        if (forge.getAuthorization() != null) {
+            httpMethod.addRequestHeader("Authorization", forge.getAuthorization());
+        }
+        ForgeHttpEncoding.acceptIdentity(httpMethod);
+        httpMethod.getParams().setSoTimeout(readTimeout);
+        try {
+            int status = getHttpClient(forge, baseUrl).executeMethod(httpMethod);
+            Header acceptRanges = httpMethod.getResponseHeader("Accept-Ranges");
+            if (status == HttpServletResponse.SC_OK && acceptRanges != null && StringUtils.containsIgnoreCase(acceptRanges.getValue(), "bytes")) {
+                return httpMethod.getResponseContentLength();
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to get the length of {}: {}", url, e.getMessage());
+        } finally {
+            httpMethod.releaseConnection();
+        }
+        return -1;
+    }
+
+    /**
+     * Downloads the artifact as parallel ranges written into a preallocated file.
+     *
+     * @return <code>true</code> if the artifact has been downloaded, <code>false</code> if the forge did not serve the
+     * requested ranges, in which case nothing is left on disk
+     * @throws IOException if a segment keeps failing, in which case nothing is left on disk either
+     */
+    private boolean downloadSegments(final Forge forge, final String url, final String baseUrl, File partial, long length) throws IOException {
+        logger.info("Downloading {} bytes from {} in {} segments", length, url, segments);
+        // the segments are written into their own file, which only becomes the partial file once all of them are
+        // complete: a preallocated partial file would look complete to a resumed download
+        File segmentsFile = getSegmentsFile(partial);
+        RandomAccessFile file = new RandomAccessFile(segmentsFile, "rw");
+        boolean complete = false;
+        try {
+            file.setLength(length);
+            final FileChannel channel = file.getChannel();
+            final AtomicBoolean failed = new AtomicBoolean();
+            // the number of segments writing into the file, guarded by itself
+            final int[] running = new int[1];
+            long segmentLength = (length + segments - 1) / segments;
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (long start = 0; start < length; start += segmentLength) {
+                final long segmentStart = start;
+                final long segmentEnd = Math.min(start + segmentLength, length) - 1;
+                futures.add(segmentExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        synchronized (running) {
+                            if (failed.get()) {
+                                // another segment failed before this one started
+                                return null;
+                            }
+                            running[0]++;
+                        }
+                        try {
+                            downloadSegment(forge, url, baseUrl, channel, segmentStart, segmentEnd, failed);
+                            return null;
+                        } catch (Exception e) {
+                            // stop the other segments right away, not when the main thread reaches this one
+                            failed.set(true);
+                            throw e;
+                        } finally {
+                            synchronized (running) {
+                                running[0]--;
+                                running.notifyAll();
+                            }
+                        }
+                    }
+                }));
+            }
+            IOException failure = null;
+            boolean interrupted = false;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (CancellationException e) {
+                    // cancelled after another segment failed
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    failed.set(true);
+                } catch (ExecutionException e) {
+                    if (failure == null || failure instanceof RangeNotSupportedException) {
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+                if (failed.get()) {
+                    for (Future<Void> remaining : futures) {
+                        remaining.cancel(false);
+                    }
+                }
+            }
+            // cancelled futures do not wait for their running segment: wait until none of them writes into the file
+            // anymore before closing it
+            synchronized (running) {
+                while (running[0] > 0) {
+                    try {
+                        running.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading " + url);
+            }
+            if (failure instanceof RangeNotSupportedException) {
+                logger.info("Falling back to a single stream download of {}: {}", url, failure.getMessage());
+                return false;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            complete = true;
+        } finally {
+            file.close();
+            if (!complete) {
+                FileUtils.deleteQuietly(segmentsFile);
+            }
+        }
+        FileUtils.deleteQuietly(partial);
+        FileUtils.moveFile(segmentsFile, partial);
+        return true;
+    }
+
+    private static File getSegmentsFile(File partial) {
+        return new File(partial.getPath() + ".segments");
+    }
+
+    private void downloadSegment(Forge forge, String url, String baseUrl, FileChannel channel, long start, long end, AtomicBoolean failed) throws IOException {
+        long position = start;
+        IOException lastFailure = null;
+        for (int attempt = 1; attempt <= maxAttempts && position <= end; attempt++) {
+            if (failed.get()) {
+                // another segment failed, the download is abandoned
+                return;
+            }
+            GetMethod httpMethod = new GetMethod(url);
+            if (forge.getAuthorization() != null) {
+                httpMethod.addRequestHeader("Authorization", forge.getAuthorization());
+            }
+            httpMethod.addRequestHeader("Range", "bytes=" + position + "-" + end);
+            ForgeHttpEncoding.acceptIdentity(httpMethod);
+            httpMethod.getParams().setSoTimeout(readTimeout);
+            try {
+                int status = getHttpClient(forge, baseUrl).executeMethod(httpMethod);
+                if (status != HttpServletResponse.SC_PARTIAL_CONTENT || !isResumedAt(httpMethod, position)) {
+                    httpMethod.abort();
+                    throw new RangeNotSupportedException("server returned status " + status + " for range " + position + "-" + end);
+                }
+                InputStream in = httpMethod.getResponseBodyAsStream();
+                if (in == null) {
+                    throw new IOException("Empty response body");
+                }
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while (position <= end && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end + 1 - position))) != -1) {
+                    if (failed.get()) {
+                        // another segment failed, the download is abandoned
+                        httpMethod.abort();
+                        return;
+                    }
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                    while (data.hasRemaining()) {
+                        position += channel.write(data, position);
+                    }
+                    if (bandwidthLimiter != null) {
+                        bandwidthLimiter.acquire(read);
+                    }
+                }
+                if (position <= end) {
+                    throw new IOException("Connection closed at byte " + position + " of range " + start + "-" + end);
+                }
+                lastFailure = null;
+            } catch (RangeNotSupportedException e) {
+                throw e;
+            } catch (IOException e) {
+                logger.warn("Download attempt {}/{} of range {}-{} of {} failed: {}", attempt, maxAttempts, start, end, url, e.getMessage());
+                lastFailure = e;
+            } finally {
+                httpMethod.releaseConnection();
+            }
+        }
+        if (lastFailure != null) {
+            throw lastFailure;
+        }
+    }
+
+    private static boolean isResumedAt(HttpMethod httpMethod, long offset) {
+        Header contentRange = httpMethod.getResponseHeader("Content-Range");
+        return contentRange != null && StringUtils.startsWith(contentRange.getValue(), "bytes " + offset + "-");
+    }
+
+    private static boolean isCompleteAt(HttpMethod httpMethod, long length) {
+        Header contentRange = httpMethod.getResponseHeader("Content-Range");
+        return contentRange != null && StringUtils.equals(StringUtils.trim(contentRange.getValue()), "bytes */" + length);
+    }
+
+    private long transfer(InputStream in, long contentLength, File partial, boolean append, MessageDigest digest) throws IOException {
+        if (in == null) {
+            throw new IOException("Empty response body");
+        }
+        OutputStream out = new FileOutputStream(partial, append);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long transferred = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                transferred += read;
+                if (bandwidthLimiter != null) {
+                    bandwidthLimiter.acquire(read);
+                }
+            }
+            // the HTTP client silently stops at a closed connection, the truncation is only visible from the length
+            if (contentLength >= 0 && transferred < contentLength) {
+                throw new IOException("Connection closed after " + transferred + " of " + contentLength + " bytes");
+            }
+            return transferred;
+        } finally {
+            IOUtils.closeQuietly(in);
+            out.close();
+        }
+    }
+
+    private static void verify(String url, File partial, String checksum, MessageDigest digest) throws IOException {
+        if (StringUtils.isEmpty(checksum)) {
+            return;
+        }
+        String expected = StringUtils.substringAfterLast(checksum, ":");
+        if (expected.isEmpty()) {
+            expected = checksum;
+        }
+        if (expected.length() != 64) {
+            logger.debug("Not verifying {}: {} is not a SHA-256 checksum", url, checksum);
+            return;
+        }
+        String actual = Hex.encodeHexString(digest.digest());
+        if (!expected.equalsIgnoreCase(actual)) {
+            // the partial content cannot be trusted anymore, start from scratch next time
+            FileUtils.deleteQuietly(partial);
+            throw new IOException("Checksum mismatch for " + url + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    private static MessageDigest digest(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the modules available on all the configured forges.
+ * <p>
+ * A new instance is built on every catalog refresh and published at once by the {@link ForgeService}, so readers always
+ * see a complete catalog without any locking.
+ */
+public final class ForgeCatalog {
+
+    private final List<Module> modules;
+    // open addressing hash table of the modules by group id and id: module position + 1 in the slots, 0 when empty,
+    // and the hash of the key of each module, so that only matching modules get their fields decoded
+    private final int[] moduleSlots;
+    private final int[] moduleKeyHashes;
+    // the modules are mostly views of module tables, which index their own download URLs
+    private final List<ForgeModuleTable> moduleTables;
+    private final Map<String, ForgeModuleVersion> downloadUrlIndex;
+    private final long version;
+    private final long timestamp;
+
+    ForgeCatalog(Map<String, Module> moduleIndex, long version, long timestamp) {
+        List<Module> sortedModules = new ArrayList<Module>(moduleIndex.values());
+        Collections.sort(sortedModules);
+        this.modules = Collections.unmodifiableList(sortedModules);
+        this.moduleSlots = new int[Integer.highestOneBit(Math.max(sortedModules.size(), 1)) * 4];
+        this.moduleKeyHashes = new int[sortedModules.size()];
+        for (int i = 0; i < sortedModules.size(); i++) {
+            Module module = sortedModules.get(i);
+            moduleKeyHashes[i] = getModuleKey(module.getId(), module.getGroupId()).hashCode();
+            int slot = getSlot(moduleKeyHashes[i]);
+            while (moduleSlots[slot] != 0) {
+                slot = (slot + 1) & (moduleSlots.length - 1);
+            }
+            moduleSlots[slot] = i + 1;
+        }
+        this.moduleTables = ForgeModuleTable.getTables(sortedModules);
+        Map<String, ForgeModuleVersion> versionsByDownloadUrl = new HashMap<String, ForgeModuleVersion>();
+        for (Module module : sortedModules) {
+            if (!(module instanceof ForgeModuleTable.TableModule)) {
+                for (ForgeModuleVersion moduleVersion : module.getVersions()) {
+                    versionsByDownloadUrl.put(moduleVersion.getDownloadUrl(), moduleVersion);
+                }
+            }
+        }
+        this.downloadUrlIndex = versionsByDownloadUrl;
+        this.version = version;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return all the modules of the catalog, sorted by id and group id
+     */
+    public List<Module> getModules() {
+        return modules;
+    }
+
+    /**
+     * @param name the module id
+     * @param groupId the module group id
+     * @return the module with the given id and group id or <code>null</code> if the catalog does not contain it
+     */
+    public Module findModule(String name, String groupId) {
+        int hash = getModuleKey(name, groupId).hashCode();
+        for (int slot = getSlot(hash); moduleSlots[slot] != 0; slot = (slot + 1) & (moduleSlots.length - 1)) {
+            int index = moduleSlots[slot] - 1;
+            if (moduleKeyHashes[index] == hash) {
+                Module module = modules.get(index);
+                if (StringUtils.equals(name, module.getId()) && StringUtils.equals(groupId, module.getGroupId())) {
+                    return module;
+                }
+            }
+        }
+        return null;
+    }
+
+    private int getSlot(int hash) {
+        // spread the high bits, the table is indexed by the low ones
+        return (hash ^ (hash >>> 16)) & (moduleSlots.length - 1);
+    }
+
+    /**
+     * @param downloadUrl the URL of a module artifact
+     * @return the module version whose artifact is downloaded from the given URL or <code>null</code> if none
+     */
+    public ForgeModuleVersion findVersionByDownloadUrl(String downloadUrl) {
+        ForgeModuleVersion moduleVersion = downloadUrlIndex.get(downloadUrl);
+        if (moduleVersion != null) {
+            return moduleVersion;
+        }
+        for (ForgeModuleTable moduleTable : moduleTables) {
+            Module module = moduleTable.findModuleByDownloadUrl(downloadUrl);
+            // the module of a table may have been shadowed by the same module on another forge
+            if (module != null && findModule(module.getId(), module.getGroupId()) == module) {
+                for (ForgeModuleVersion version : module.getVersions()) {
+                    if (downloadUrl.equals(version.getDownloadUrl())) {
+                        return version;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return modules.size();
+    }
+
+    /**
+     * @return the sequence number of this snapshot, incremented on every refresh
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the time this snapshot was built at, in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    static String getModuleKey(String name, String groupId) {
+        // ':' is neither allowed in a module id nor in a group id
+        return groupId + ":" + name;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.bin.Jahia;
+import org.jahia.commons.Version;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming parser for the <code>modules-repository.moduleList.json</code> catalog of a forge.
+ * <p>
+ * The catalog is read token by token straight from the response stream: only the versions of each module that are
+ * compatible with the running platform are kept, so memory usage depends on the modules returned and not on the size
+ * of the JSON document.
+ */
+class ForgeCatalogParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final Version JAHIA_VERSION = new Version(Jahia.VERSION);
+
+    private final String forgeId;
+
+    ForgeCatalogParser(String forgeId) {
+        this.forgeId = forgeId;
+    }
+
+    /**
+     * Parses the catalog read from the given stream. The stream is not closed.
+     *
+     * @param inputStream the catalog content
+     * @return the modules having at least one version compatible with the running platform
+     * @throws IOException in case the stream cannot be read or is not a valid catalog
+     */
+    public List<Module> parse(InputStream inputStream) throws IOException {
+        List<Module> modules = new ArrayList<Module>();
+        JsonParser parser = JSON_FACTORY.createParser(inputStream);
+        try {
+            expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+            // only the first entry of the root array holds the module list
+            JsonToken token = parser.nextToken();
+            expect(parser, token, JsonToken.START_OBJECT);
+            boolean modulesFound = false;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                token = parser.nextToken();
+                if ("modules".equals(field)) {
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                        expect(parser, token, JsonToken.START_OBJECT);
+                        Module module = parseModule(parser);
+                        if (module != null) {
+                            modules.add(module);
+                        }
+                    }
+                    modulesFound = true;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (!modulesFound) {
+                throw new JsonParseException(parser, "No modules entry found in the catalog");
+            }
+        } finally {
+            parser.close();
+        }
+        return modules;
+    }
+
+    private Module parseModule(JsonParser parser) throws IOException {
+        Module module = new Module();
+        List<ForgeModuleVersion> versions = new ArrayList<ForgeModuleVersion>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("versions".equals(field)) {
+                expect(parser, token, JsonToken.START_ARRAY);
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    ForgeModuleVersion version = parseVersion(parser);
+                    if (version != null) {
+                        versions.add(version);
+                    }
+                }
+            } else if ("name".equals(field)) {
+                module.setId(parser.getValueAsString());
+            } else if ("title".equals(field)) {
+                module.setName(parser.getValueAsString());
+            } else if ("groupId".equals(field)) {
+                module.setGroupId(parser.getValueAsString());
+            } else if ("remoteUrl".equals(field)) {
+                module.setRemoteUrl(parser.getValueAsString());
+            } else if ("path".equals(field)) {
+                module.setRemotePath(parser.getValueAsString());
+            } else if ("icon".equals(field)) {
+                module.setIcon(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (versions.isEmpty()) {
+            // no version compatible with the running platform
+            return null;
+        }
+        required(parser, module.getId(), "name");
+        required(parser, module.getName(), "title");
+        required(parser, module.getGroupId(), "groupId");
+        required(parser, module.getRemoteUrl(), "remoteUrl");
+        required(parser, module.getRemotePath(), "path");
+        module.setVersions(removeDuplicates(versions));
+        List<ForgeModuleVersion> compatibleVersions = module.getVersions();
+        ForgeModuleVersion newest = compatibleVersions.get(compatibleVersions.size() - 1);
+        module.setVersion(newest.getVersion());
+        module.setDownloadUrl(newest.getDownloadUrl());
+        module.setChecksum(newest.getChecksum());
+        module.setForgeId(forgeId);
+        return module;
+    }
+
+    /**
+     * @return the version read from the parser, or <code>null</code> if it requires a newer platform
+     */
+    private static ForgeModuleVersion parseVersion(JsonParser parser) throws IOException {
+        String version = null;
+        String requiredVersion = null;
+        String downloadUrl = null;
+        String checksum = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String versionField = parser.getCurrentName();
+            parser.nextToken();
+            if ("version".equals(versionField)) {
+                version = parser.getValueAsString();
+            } else if ("requiredVersion".equals(versionField)) {
+                requiredVersion = parser.getValueAsString();
+            } else if ("downloadUrl".equals(versionField)) {
+                downloadUrl = parser.getValueAsString();
+            } else if ("checksum".equals(versionField)) {
+                checksum = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        required(parser, version, "version");
+        String platformVersion = StringUtils.substringAfter(required(parser, requiredVersion, "requiredVersion"), "version-");
+        if (new Version(platformVersion).compareTo(JAHIA_VERSION) > 0) {
+            return null;
+        }
+        return new ForgeModuleVersion(version, platformVersion, required(parser, downloadUrl, "downloadUrl"), checksum);
+    }
+
+    /**
+     * Sorts the versions and keeps the last declared entry of a version listed several times.
+     */
+    private static List<ForgeModuleVersion> removeDuplicates(List<ForgeModuleVersion> versions) {
+        // stable sort: entries of a same version keep their declaration order
+        Collections.sort(versions);
+        List<ForgeModuleVersion> uniqueVersions = new ArrayList<ForgeModuleVersion>(versions.size());
+        for (int i = 0; i < versions.size(); i++) {
+            if (i == versions.size() - 1 || versions.get(i).compareTo(versions.get(i + 1)) != 0) {
+                uniqueVersions.add(versions.get(i));
+            }
+        }
+        return uniqueVersions;
+    }
+
+    private static String required(JsonParser parser, String value, String field) throws JsonParseException {
+        if (value == null) {
+            throw new JsonParseException(parser, "Missing " + field + " entry in the catalog");
+        }
+        return value;
+    }
+
+    private static void expect(JsonParser parser, JsonToken token, JsonToken expected) throws JsonParseException {
+        if (token != expected) {
+            throw new JsonParseException(parser, "Unexpected token " + token + ", expected " + expected);
+        }
+    }
+}
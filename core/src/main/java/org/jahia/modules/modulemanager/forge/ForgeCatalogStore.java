@@ -0,0 +1,283 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jahia.bin.Jahia;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the parsed forge catalogs, with their HTTP validators and load time, to a gzipped JSON file so that a
+ * restarted node can serve the forge view immediately and only revalidate the catalogs in the background.
+ */
+class ForgeCatalogStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForgeCatalogStore.class);
+
+    private static final int FORMAT_VERSION = 3;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Content of the store file.
+     */
+    public static class StoredCatalog {
+
+        private int formatVersion;
+        private long timestamp;
+        private List<StoredForge> forges = new ArrayList<StoredForge>();
+
+        public int getFormatVersion() {
+            return formatVersion;
+        }
+
+        public void setFormatVersion(int formatVersion) {
+            this.formatVersion = formatVersion;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public List<StoredForge> getForges() {
+            return forges;
+        }
+
+        public void setForges(List<StoredForge> forges) {
+            this.forges = forges;
+        }
+    }
+
+    /**
+     * Catalog of a single forge in the store file.
+     */
+    public static class StoredForge {
+
+        private String forgeId;
+        private String url;
+        private String platformVersion;
+        private String etag;
+        private String lastModified;
+        private long loadTime;
+        private List<Module> modules = new ArrayList<Module>();
+
+        public String getForgeId() {
+            return forgeId;
+        }
+
+        public void setForgeId(String forgeId) {
+            this.forgeId = forgeId;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        /**
+         * @return the version of the platform the modules were filtered for
+         */
+        public String getPlatformVersion() {
+            return platformVersion;
+        }
+
+        public void setPlatformVersion(String platformVersion) {
+            this.platformVersion = platformVersion;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public void setEtag(String etag) {
+            this.etag = etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(String lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public long getLoadTime() {
+            return loadTime;
+        }
+
+        public void setLoadTime(long loadTime) {
+            this.loadTime = loadTime;
+        }
+
+        public List<Module> getModules() {
+            return modules;
+        }
+
+        public void setModules(List<Module> modules) {
+            this.modules = modules;
+        }
+    }
+
+    private final File file;
+
+    ForgeCatalogStore(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the stored catalogs.
+     *
+     * @return the stored catalogs, or <code>null</code> if there is no usable store file
+     */
+    public StoredCatalog read() {
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+            StoredCatalog storedCatalog = MAPPER.readValue(in, StoredCatalog.class);
+            if (storedCatalog.getFormatVersion() != FORMAT_VERSION) {
+                logger.info("Ignoring forge catalog cache {} written in an unsupported format", file);
+                return null;
+            }
+            return storedCatalog;
+        } catch (IOException e) {
+            logger.warn("Unable to read forge catalog cache " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the given catalogs, replacing the store file atomically.
+     *
+     * @param timestamp the time the catalogs were loaded at
+     * @param forgeModuleLists the catalogs to store, by forge id
+     */
+    public void write(long timestamp, Map<String, ForgeModuleList> forgeModuleLists) {
+        StoredCatalog storedCatalog = new StoredCatalog();
+        storedCatalog.setFormatVersion(FORMAT_VERSION);
+        storedCatalog.setTimestamp(timestamp);
+        for (Map.Entry<String, ForgeModuleList> entry : forgeModuleLists.entrySet()) {
+            StoredForge storedForge = new StoredForge();
+            storedForge.setForgeId(entry.getKey());
+            storedForge.setUrl(entry.getValue().getUrl());
+            storedForge.setPlatformVersion(Jahia.VERSION);
+            storedForge.setEtag(entry.getValue().getEtag());
+            storedForge.setLastModified(entry.getValue().getLastModified());
+            storedForge.setLoadTime(entry.getValue().getLoadTime());
+            storedForge.setModules(entry.getValue().getModules());
+            storedCatalog.getForges().add(storedForge);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            FileUtils.forceMkdir(file.getParentFile());
+            out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            MAPPER.writeValue(out, storedCatalog);
+            out = null;
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write forge catalog cache " + file + ": " + e.getMessage());
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * Converts the stored catalogs back to module lists, by forge id. The catalogs stored by another version of the
+     * platform are dropped with their validators, the forge would otherwise confirm the modules compatible with the
+     * previous version.
+     */
+    static Map<String, ForgeModuleList> toForgeModuleLists(StoredCatalog storedCatalog) {
+        Map<String, ForgeModuleList> forgeModuleLists = new LinkedHashMap<String, ForgeModuleList>();
+        for (StoredForge storedForge : storedCatalog.getForges()) {
+            if (!Jahia.VERSION.equals(storedForge.getPlatformVersion())) {
+                continue;
+            }
+            forgeModuleLists.put(storedForge.getForgeId(), new ForgeModuleList(storedForge.getUrl(), storedForge.getEtag(),
+                    storedForge.getLastModified(), storedForge.getLoadTime(), storedForge.getModules()));
+        }
+        return forgeModuleLists;
+    }
+}
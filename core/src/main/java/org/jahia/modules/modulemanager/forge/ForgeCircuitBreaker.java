@@ -0,0 +1,104 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+/**
+ * Circuit breaker guarding the requests sent to a forge: after a number of consecutive failures the forge is skipped
+ * for a cool-down period, after which a single trial request decides whether it is closed again.
+ */
+class ForgeCircuitBreaker {
+
+    private final int failureThreshold;
+    private final long coolDown;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInProgress;
+
+    ForgeCircuitBreaker(int failureThreshold, long coolDown) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * @return <code>true</code> if a request may be sent to the forge
+     */
+    public synchronized boolean allowRequest() {
+        if (consecutiveFailures < failureThreshold) {
+            return true;
+        }
+        if (System.currentTimeMillis() < openUntil || trialInProgress) {
+            return false;
+        }
+        // cool-down elapsed: let a single trial request through
+        trialInProgress = true;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialInProgress = false;
+        if (consecutiveFailures >= failureThreshold) {
+            openUntil = System.currentTimeMillis() + coolDown;
+        }
+    }
+
+    /**
+     * @return the time from which a request may be sent to the forge again, in milliseconds
+     */
+    public synchronized long getRetryTime() {
+        return consecutiveFailures >= failureThreshold ? openUntil : System.currentTimeMillis();
+    }
+
+    /**
+     * @return <code>true</code> if requests to the forge are currently skipped
+     */
+    public synchronized boolean isOpen() {
+        return consecutiveFailures >= failureThreshold && System.currentTimeMillis() < openUntil;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Schedules the artifact downloads from the forges: at most a given number of transfers run at the same time, the
+ * others wait for their turn in arrival order, and concurrent requests for the same artifact share a single transfer.
+ * Downloads run in the requesting thread, the first requester of an artifact performing the transfer for all of them.
+ */
+class ForgeDownloadManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForgeDownloadManager.class);
+
+    /**
+     * Hands the result of a shared transfer to each of its requesters.
+     */
+    interface ResultHandler {
+
+        /**
+         * Returns a copy of the downloaded file that the requester owns.
+         */
+        File checkout(File downloaded) throws IOException;
+
+        /**
+         * Called once all the requesters got their copy.
+         */
+        void release(File downloaded);
+    }
+
+    private static class Download {
+
+        private final FutureTask<File> transfer;
+        private int requesters;
+
+        Download(FutureTask<File> transfer) {
+            this.transfer = transfer;
+        }
+    }
+
+    private final Semaphore permits;
+    private final ForgeBandwidthLimiter bandwidthLimiter;
+    private final Map<String, Download> downloads = new HashMap<String, Download>();
+
+    /**
+     * @param maxConcurrentDownloads the maximum number of transfers running at the same time
+     * @param maxBytesPerSecond the maximum total throughput of the transfers, or 0 for no limit
+     */
+    ForgeDownloadManager(int maxConcurrentDownloads, long maxBytesPerSecond) {
+        this.permits = new Semaphore(Math.max(1, maxConcurrentDownloads), true);
+        this.bandwidthLimiter = maxBytesPerSecond > 0 ? new ForgeBandwidthLimiter(maxBytesPerSecond) : null;
+    }
+
+    /**
+     * @return the limiter the transfers must account their bytes to, or <code>null</code> if the bandwidth is not capped
+     */
+    public ForgeBandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * Downloads an artifact, or joins the transfer of the same artifact already in progress.
+     *
+     * @param key the key identifying the artifact
+     * @param transfer performs the transfer and returns the downloaded file, or <code>null</code> if not available
+     * @param resultHandler provides each requester with its own copy of the downloaded file
+     * @return the copy of the downloaded file owned by the caller, or <code>null</code> if the artifact is not available
+     * @throws IOException if the transfer failed
+     */
+    public File download(String key, final Callable<File> transfer, ResultHandler resultHandler) throws IOException {
+        Download download;
+        boolean owner = false;
+        synchronized (downloads) {
+            download = downloads.get(key);
+            if (download == null) {
+                download = new Download(new FutureTask<File>(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        permits.acquire();
+                        try {
+                            return transfer.call();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+                downloads.put(key, download);
+                owner = true;
+            } else {
+                logger.debug("Joining the download of {} already in progress", key);
+            }
+            download.requesters++;
+        }
+        File downloaded = null;
+        try {
+            if (owner) {
+                download.transfer.run();
+            }
+            downloaded = download.transfer.get();
+            return downloaded != null ? resultHandler.checkout(downloaded) : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the download of " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw new InterruptedIOException("Interrupted while waiting for a download slot for " + key);
+            }
+            throw new IOException("Unable to download " + key, cause);
+        } finally {
+            boolean last;
+            synchronized (downloads) {
+                last = --download.requesters == 0;
+                if (last) {
+                    downloads.remove(key);
+                }
+            }
+            if (last && downloaded != null) {
+                resultHandler.release(downloaded);
+            }
+        }
+    }
+}
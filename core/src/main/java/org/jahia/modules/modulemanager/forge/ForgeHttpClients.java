@@ -0,0 +1,185 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.jahia.services.notification.HttpClientService;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Gives each forge, and each of its mirrors, its own pool of persistent connections, so that catalog refreshes and
+ * downloads reuse warm, already negotiated connections instead of opening a new one, with a new TLS handshake, for
+ * each request. The proxy and client settings are taken from the platform HTTP client service.
+ */
+class ForgeHttpClients {
+
+    private static final long IDLE_CONNECTION_TIMEOUT = 60000L;
+
+    private static class PooledClient {
+
+        private final String forgeId;
+        private final HttpClient httpClient;
+        private final MultiThreadedHttpConnectionManager connectionManager;
+
+        PooledClient(String forgeId, HttpClient httpClient, MultiThreadedHttpConnectionManager connectionManager) {
+            this.forgeId = forgeId;
+            this.httpClient = httpClient;
+            this.connectionManager = connectionManager;
+        }
+    }
+
+    private final HttpClientService httpClientService;
+    private final int maxConnections;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final ConcurrentMap<String, PooledClient> clients = new ConcurrentHashMap<String, PooledClient>();
+    private final IdleConnectionTimeoutThread idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+
+    ForgeHttpClients(HttpClientService httpClientService, int maxConnections, int connectTimeout, int readTimeout) {
+        this.httpClientService = httpClientService;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        idleConnectionTimeoutThread.setName("forge-idle-connections");
+        idleConnectionTimeoutThread.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+        idleConnectionTimeoutThread.setTimeoutInterval(IDLE_CONNECTION_TIMEOUT / 2);
+        idleConnectionTimeoutThread.start();
+    }
+
+    /**
+     * Returns the number of connections of a pool that the segments of a download may use, so that one connection is
+     * always left for the catalog requests.
+     */
+    public int getMaxSegmentConnections() {
+        return maxConnections - 1;
+    }
+
+    /**
+     * Returns the HTTP client of the forge, backed by the connection pool of the forge.
+     */
+    public HttpClient getHttpClient(Forge forge) {
+        return getHttpClient(forge, forge.getUrl());
+    }
+
+    /**
+     * Returns the HTTP client of a forge mirror, backed by the connection pool of the mirror.
+     *
+     * @param forge the forge
+     * @param baseUrl the URL of the forge or of one of its mirrors
+     */
+    public HttpClient getHttpClient(Forge forge, String baseUrl) {
+        String key = forge.getId() + " " + baseUrl;
+        PooledClient client = clients.get(key);
+        if (client != null) {
+            return client.httpClient;
+        }
+        synchronized (this) {
+            client = clients.get(key);
+            if (client == null) {
+                client = newPooledClient(forge.getId(), baseUrl);
+                clients.put(key, client);
+            }
+            return client.httpClient;
+        }
+    }
+
+    private PooledClient newPooledClient(String forgeId, String url) {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnections);
+        params.setMaxTotalConnections(maxConnections);
+        params.setConnectionTimeout(connectTimeout);
+        params.setSoTimeout(readTimeout);
+        params.setStaleCheckingEnabled(true);
+
+        // reuse the proxy and client settings the platform applies to this URL
+        HttpClient platformClient = httpClientService.getHttpClient(url);
+        HttpClientParams clientParams = new HttpClientParams(platformClient.getParams());
+        // a request waiting for a pooled connection gives up like one waiting for a new connection, instead of
+        // waiting for the end of the downloads holding them, which an abort of the request would not interrupt
+        clientParams.setConnectionManagerTimeout(connectTimeout);
+        HttpClient httpClient = new HttpClient(clientParams, connectionManager);
+        httpClient.setHostConfiguration(platformClient.getHostConfiguration());
+        httpClient.setState(platformClient.getState());
+
+        idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+        return new PooledClient(forgeId, httpClient, connectionManager);
+    }
+
+    /**
+     * Closes the connections of a forge that has been removed or changed.
+     */
+    public synchronized void remove(String forgeId) {
+        for (Iterator<PooledClient> iterator = clients.values().iterator(); iterator.hasNext(); ) {
+            PooledClient client = iterator.next();
+            if (client.forgeId.equals(forgeId)) {
+                iterator.remove();
+                close(client);
+            }
+        }
+    }
+
+    /**
+     * Closes all the connections.
+     */
+    public synchronized void shutdown() {
+        idleConnectionTimeoutThread.shutdown();
+        for (PooledClient client : clients.values()) {
+            client.connectionManager.shutdown();
+        }
+        clients.clear();
+    }
+
+    private void close(PooledClient client) {
+        idleConnectionTimeoutThread.removeConnectionManager(client.connectionManager);
+        client.connectionManager.shutdown();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Negotiates gzip compressed responses with the forges. Compressed bodies are inflated on the fly while they are
+ * read, so that they are never buffered in either form.
+ */
+final class ForgeHttpEncoding {
+
+    private static final String GZIP = "gzip";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ForgeHttpEncoding() {
+    }
+
+    /**
+     * Tells the forge the response may be gzip compressed.
+     */
+    static void acceptCompressed(HttpMethod httpMethod) {
+        httpMethod.setRequestHeader("Accept-Encoding", GZIP);
+    }
+
+    /**
+     * Asks the forge for the response as is, as needed by range requests whose offsets apply to the uncompressed
+     * content.
+     */
+    static void acceptIdentity(HttpMethod httpMethod) {
+        httpMethod.setRequestHeader("Accept-Encoding", "identity");
+    }
+
+    /**
+     * @return <code>true</code> if the response body is gzip compressed
+     */
+    static boolean isCompressed(HttpMethod httpMethod) {
+        Header contentEncoding = httpMethod.getResponseHeader("Content-Encoding");
+        return contentEncoding != null && GZIP.equalsIgnoreCase(contentEncoding.getValue().trim());
+    }
+
+    /**
+     * Returns the response body, inflated if the forge compressed it.
+     *
+     * @return the uncompressed response body, or <code>null</code> if there is none
+     */
+    static InputStream getResponseBodyAsStream(HttpMethod httpMethod) throws IOException {
+        InputStream body = httpMethod.getResponseBodyAsStream();
+        if (body == null || !isCompressed(httpMethod)) {
+            return body;
+        }
+        return new GZIPInputStream(body, BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two level cache of the icons of the forge modules: the most recently used icons are kept in memory, all the fetched
+ * ones on disk, both bounded in size. Icons can optionally be re-encoded to small PNG thumbnails before being cached.
+ * <p>
+ * Icons are served from the origin of the administration UI, so only PNG, JPEG and GIF images are kept; anything
+ * else, SVG included, is rejected. Images are only decoded to create thumbnails, and only if the dimensions they declare
+ * are small enough, since the memory a decoded image takes only depends on them.
+ */
+class ForgeIconCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForgeIconCache.class);
+
+    private static final String PNG_CONTENT_TYPE = "image/png";
+    // larger icons are rejected rather than decoded, a decoded image of this size already takes 16 MB
+    private static final int MAX_DECODED_SIZE = 2048;
+
+    private final ForgeArtifactCache diskCache;
+    private final long memoryCacheMaxSize;
+    private final int thumbnailSize;
+    private final LinkedHashMap<String, ForgeIcon> memoryCache = new LinkedHashMap<String, ForgeIcon>(16, 0.75f, true);
+    private long memoryCacheSize;
+
+    /**
+     * @param diskCache the cache the icons are stored into on disk, <code>null</code> to keep them in memory only
+     * @param memoryCacheMaxSize maximum size in bytes of the icons kept in memory
+     * @param thumbnailSize the size in pixels of the thumbnails the icons are re-encoded to, 0 to keep them as is
+     */
+    ForgeIconCache(ForgeArtifactCache diskCache, long memoryCacheMaxSize, int thumbnailSize) {
+        this.diskCache = diskCache;
+        this.memoryCacheMaxSize = memoryCacheMaxSize;
+        this.thumbnailSize = thumbnailSize;
+    }
+
+    /**
+     * @param url the URL of the icon on the forge
+     * @return the cached icon or <code>null</code> if it is not in the cache
+     */
+    public ForgeIcon get(String url) {
+        synchronized (memoryCache) {
+            ForgeIcon icon = memoryCache.get(url);
+            if (icon != null) {
+                return icon;
+            }
+        }
+        if (diskCache == null) {
+            return null;
+        }
+        File cached = diskCache.get(url, getVariant());
+        if (cached == null) {
+            return null;
+        }
+        try {
+            ForgeIcon icon = toIcon(FileUtils.readFileToByteArray(cached));
+            if (icon == null) {
+                // not written by this version of the cache, fetch it again
+                FileUtils.deleteQuietly(cached);
+                return null;
+            }
+            putInMemory(url, icon);
+            return icon;
+        } catch (IOException e) {
+            logger.warn("Unable to read cached icon " + cached + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Caches an icon fetched from a forge, re-encoding it first if thumbnails are enabled.
+     *
+     * @param url the URL of the icon on the forge
+     * @param data the icon fetched from the forge
+     * @return the cached icon, or <code>null</code> if the data is not a supported image
+     */
+    public ForgeIcon put(String url, byte[] data) {
+        if (getContentType(data) == null) {
+            logger.debug("Ignoring icon {}, not a supported image", url);
+            return null;
+        }
+        byte[] iconData = thumbnailSize > 0 ? toThumbnail(url, data) : data;
+        if (iconData == null) {
+            return null;
+        }
+        ForgeIcon icon = toIcon(iconData);
+        putInMemory(url, icon);
+        if (diskCache != null) {
+            File partial = diskCache.getPartialFile(url, getVariant());
+            try {
+                FileUtils.writeByteArrayToFile(partial, iconData);
+                diskCache.put(url, getVariant(), partial);
+            } catch (IOException e) {
+                logger.warn("Unable to cache icon " + url + ": " + e.getMessage());
+            } finally {
+                // left over if the icon was too large to be cached
+                FileUtils.deleteQuietly(partial);
+            }
+        }
+        return icon;
+    }
+
+    private void putInMemory(String url, ForgeIcon icon) {
+        if (icon.getData().length > memoryCacheMaxSize) {
+            return;
+        }
+        synchronized (memoryCache) {
+            ForgeIcon previous = memoryCache.put(url, icon);
+            memoryCacheSize += icon.getData().length - (previous != null ? previous.getData().length : 0);
+            // least recently used first
+            Iterator<Map.Entry<String, ForgeIcon>> entries = memoryCache.entrySet().iterator();
+            while (memoryCacheSize > memoryCacheMaxSize && entries.hasNext()) {
+                memoryCacheSize -= entries.next().getValue().getData().length;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the variant of the icons stored on disk, so that changing the thumbnail size does not serve stale ones
+     */
+    private String getVariant() {
+        return thumbnailSize > 0 ? "thumbnail-" + thumbnailSize : null;
+    }
+
+    private static ForgeIcon toIcon(byte[] data) {
+        String contentType = getContentType(data);
+        return contentType != null ? new ForgeIcon(data, contentType) : null;
+    }
+
+    /**
+     * Scales the icon down to the thumbnail size, keeping its aspect ratio, and encodes it as PNG.
+     *
+     * @return the thumbnail, or <code>null</code> if the icon cannot be decoded or is too large to be
+     */
+    private byte[] toThumbnail(String url, byte[] data) {
+        try {
+            BufferedImage image = readImage(url, data);
+            if (image == null) {
+                return null;
+            }
+            double scale = Math.min(1.0, (double) thumbnailSize / Math.max(image.getWidth(), image.getHeight()));
+            int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+            BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = thumbnail.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(image, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(thumbnail, "png", out);
+            // a small icon may already be smaller than its re-encoded version
+            return out.size() < data.length || !isPng(data) ? out.toByteArray() : data;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to create a thumbnail of icon " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the image, after checking the dimensions it declares.
+     *
+     * @return the image, or <code>null</code> if no reader supports it or it is larger than {@link #MAX_DECODED_SIZE}
+     */
+    private static BufferedImage readImage(String url, byte[] data) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+        if (in == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width > MAX_DECODED_SIZE || height > MAX_DECODED_SIZE) {
+                    logger.debug("Ignoring icon {}, its size {}x{} is too large", url, width, height);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isPng(byte[] data) {
+        return data.length > 4 && data[0] == (byte) 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G';
+    }
+
+    private static boolean isJpeg(byte[] data) {
+        return data.length > 3 && data[0] == (byte) 0xFF && data[1] == (byte) 0xD8 && data[2] == (byte) 0xFF;
+    }
+
+    private static boolean isGif(byte[] data) {
+        return data.length > 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8';
+    }
+
+    /**
+     * @return the content type of the image, detected from its content, or <code>null</code> if it is not a PNG, JPEG
+     * or GIF image
+     */
+    private static String getContentType(byte[] data) {
+        if (isPng(data)) {
+            return PNG_CONTENT_TYPE;
+        }
+        if (isJpeg(data)) {
+            return "image/jpeg";
+        }
+        return isGif(data) ? "image/gif" : null;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Forge backed by a local directory in Maven repository layout, for nodes that cannot reach a remote forge. Its URL
+ * is the <code>file:</code> URL of the directory.
+ * <p>
+ * The catalog is generated from the manifests of the module jars found in the directory. The result of the scan is
+ * cached, in memory and in the <code>contents</code> folder of the repository when it is writable, so that only new or
+ * modified jars are opened again; the generated <code>modules-repository.moduleList.json</code> is written there too,
+ * in the format of the remote forges.
+ */
+class ForgeLocalRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForgeLocalRepository.class);
+
+    private static final String URL_PREFIX = "file:";
+    private static final String INDEX_PATH = "contents/modules-repository.moduleList.json";
+    private static final String SCAN_CACHE_PATH = "contents/module-scan-cache.json";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Module information read from the manifest of a jar.
+     */
+    public static class ScannedArtifact {
+
+        private String path;
+        private long size;
+        private long lastModified;
+        private String id;
+        private String title;
+        private String groupId;
+        private String version;
+        private String requiredVersion;
+        private String checksum;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the module id, or <code>null</code> if the jar is not a module
+         */
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public void setGroupId(String groupId) {
+            this.groupId = groupId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public void setVersion(String version) {
+            this.version = version;
+        }
+
+        public String getRequiredVersion() {
+            return requiredVersion;
+        }
+
+        public void setRequiredVersion(String requiredVersion) {
+            this.requiredVersion = requiredVersion;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(String checksum) {
+            this.checksum = checksum;
+        }
+    }
+
+    private final File root;
+    private Map<String, ScannedArtifact> scannedArtifacts;
+    private byte[] index;
+
+    ForgeLocalRepository(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @return <code>true</code> if the forge is a local repository
+     */
+    static boolean isLocal(Forge forge) {
+        return StringUtils.startsWith(forge.getUrl(), URL_PREFIX);
+    }
+
+    /**
+     * @return the directory of the local repository at the given URL
+     */
+    static File getDirectory(String url) throws IOException {
+        try {
+            return new File(new URI(url));
+        } catch (Exception e) {
+            throw new IOException("Invalid local forge URL " + url, e);
+        }
+    }
+
+    /**
+     * Returns the modules of the repository, scanning the jars added or modified since the last call.
+     *
+     * @param forgeId the id of the forge
+     * @return the modules having at least one version compatible with the running platform
+     */
+    public synchronized List<Module> loadModules(String forgeId) throws IOException {
+        updateIndex();
+        return new ForgeCatalogParser(forgeId).parse(new ByteArrayInputStream(index));
+    }
+
+    /**
+     * Copies an artifact of the repository to a temporary file.
+     *
+     * @param url the download URL of the artifact
+     * @param checksum the SHA-256 checksum published for the artifact, or <code>null</code> if none
+     * @return the copy of the artifact, owned by the caller
+     * @throws IOException if the artifact is not part of the repository, cannot be read or does not match the checksum
+     */
+    public File checkout(String url, String checksum) throws IOException {
+        File artifact = getDirectory(url).getCanonicalFile();
+        if (!artifact.getPath().startsWith(root.getCanonicalPath() + File.separator) || !artifact.isFile()) {
+            throw new IOException(url + " is not an artifact of the local forge " + root);
+        }
+        File copy = File.createTempFile("module", "." + StringUtils.substringAfterLast(artifact.getName(), "."));
+        FileUtils.copyFile(artifact, copy);
+        if (StringUtils.isNotEmpty(checksum)) {
+            String expected = StringUtils.contains(checksum, ":") ? StringUtils.substringAfterLast(checksum, ":") : checksum;
+            String actual = sha256(copy);
+            if (!expected.equalsIgnoreCase(actual)) {
+                FileUtils.deleteQuietly(copy);
+                throw new IOException("Checksum mismatch for " + url + ": expected " + expected + " but was " + actual);
+            }
+        }
+        return copy;
+    }
+
+    private void updateIndex() throws IOException {
+        if (!root.isDirectory()) {
+            throw new IOException(root + " is not a directory");
+        }
+        if (scannedArtifacts == null) {
+            scannedArtifacts = readScanCache();
+        }
+        Map<String, ScannedArtifact> artifacts = new TreeMap<String, ScannedArtifact>();
+        boolean changed = false;
+        String rootPath = root.getPath() + File.separator;
+        for (File jar : FileUtils.listFiles(root, new String[] { "jar" }, true)) {
+            String path = StringUtils.removeStart(jar.getPath(), rootPath).replace(File.separatorChar, '/');
+            ScannedArtifact artifact = scannedArtifacts.get(path);
+            if (artifact == null || artifact.getSize() != jar.length() || artifact.getLastModified() != jar.lastModified()) {
+                artifact = scan(jar, path);
+                changed = true;
+            }
+            artifacts.put(path, artifact);
+        }
+        changed |= !artifacts.keySet().equals(scannedArtifacts.keySet());
+        scannedArtifacts = artifacts;
+        if (!changed && index != null) {
+            return;
+        }
+        index = generateIndex(artifacts.values());
+        if (changed) {
+            writeIndex();
+        }
+    }
+
+    private static ScannedArtifact scan(File jar, String path) throws IOException {
+        ScannedArtifact artifact = new ScannedArtifact();
+        artifact.setPath(path);
+        artifact.setSize(jar.length());
+        artifact.setLastModified(jar.lastModified());
+        Manifest manifest = null;
+        JarFile jarFile = null;
+        try {
+            jarFile = new JarFile(jar);
+            manifest = jarFile.getManifest();
+        } catch (IOException e) {
+            logger.warn("Unable to read the manifest of {}: {}", jar, e.getMessage());
+        } finally {
+            if (jarFile != null) {
+                jarFile.close();
+            }
+        }
+        Attributes attributes = manifest != null ? manifest.getMainAttributes() : null;
+        if (attributes == null || attributes.getValue("Jahia-Required-Version") == null) {
+            // not a module, remembered as such so that it is not opened again
+            return artifact;
+        }
+        // Maven layout: group/path/artifactId/version/artifactId-version.jar
+        String[] segments = StringUtils.split(path, '/');
+        String artifactId = segments.length >= 3 ? segments[segments.length - 3] : StringUtils.substringBeforeLast(jar.getName(), ".");
+        String layoutGroupId = segments.length > 3 ? StringUtils.join(segments, '.', 0, segments.length - 3) : null;
+        String layoutVersion = segments.length >= 3 ? segments[segments.length - 2] : null;
+
+        artifact.setId(StringUtils.defaultIfEmpty(StringUtils.trim(StringUtils.substringBefore(attributes.getValue("Bundle-SymbolicName"), ";")), artifactId));
+        artifact.setTitle(StringUtils.defaultIfEmpty(attributes.getValue("Bundle-Name"), artifact.getId()));
+        artifact.setGroupId(StringUtils.defaultIfEmpty(attributes.getValue("Jahia-GroupId"), layoutGroupId));
+        artifact.setVersion(StringUtils.defaultIfEmpty(attributes.getValue("Implementation-Version"),
+                StringUtils.defaultIfEmpty(layoutVersion, attributes.getValue("Bundle-Version"))));
+        artifact.setRequiredVersion(attributes.getValue("Jahia-Required-Version"));
+        artifact.setChecksum(sha256(jar));
+        if (artifact.getGroupId() == null || artifact.getVersion() == null) {
+            logger.warn("Ignoring {}, its group id or version cannot be determined", jar);
+            artifact.setId(null);
+        }
+        return artifact;
+    }
+
+    /**
+     * Generates the catalog in the format of the <code>modules-repository.moduleList.json</code> of the remote forges.
+     */
+    private byte[] generateIndex(Collection<ScannedArtifact> artifacts) throws IOException {
+        Map<String, List<ScannedArtifact>> modules = new LinkedHashMap<String, List<ScannedArtifact>>();
+        for (ScannedArtifact artifact : artifacts) {
+            if (artifact.getId() != null) {
+                String key = ForgeCatalog.getModuleKey(artifact.getId(), artifact.getGroupId());
+                List<ScannedArtifact> versions = modules.get(key);
+                if (versions == null) {
+                    versions = new ArrayList<ScannedArtifact>();
+                    modules.put(key, versions);
+                }
+                versions.add(artifact);
+            }
+        }
+        String rootUrl = StringUtils.removeEnd(root.toURI().toString(), "/");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartArray();
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("modules");
+        for (List<ScannedArtifact> versions : modules.values()) {
+            ScannedArtifact first = versions.get(0);
+            String modulePath = StringUtils.substringBeforeLast(StringUtils.substringBeforeLast(first.getPath(), "/"), "/");
+            generator.writeStartObject();
+            generator.writeStringField("name", first.getId());
+            generator.writeStringField("title", first.getTitle());
+            generator.writeStringField("groupId", first.getGroupId());
+            generator.writeStringField("remoteUrl", rootUrl + "/" + modulePath);
+            generator.writeStringField("path", modulePath);
+            generator.writeArrayFieldStart("versions");
+            for (ScannedArtifact version : versions) {
+                generator.writeStartObject();
+                generator.writeStringField("version", version.getVersion());
+                generator.writeStringField("requiredVersion", "version-" + version.getRequiredVersion());
+                generator.writeStringField("downloadUrl", rootUrl + "/" + version.getPath());
+                generator.writeStringField("checksum", version.getChecksum());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.close();
+        return out.toByteArray();
+    }
+
+    private Map<String, ScannedArtifact> readScanCache() {
+        File cacheFile = new File(root, SCAN_CACHE_PATH);
+        Map<String, ScannedArtifact> artifacts = new TreeMap<String, ScannedArtifact>();
+        if (!cacheFile.isFile()) {
+            return artifacts;
+        }
+        try {
+            List<ScannedArtifact> cachedArtifacts = MAPPER.readValue(cacheFile,
+                    TypeFactory.defaultInstance().constructCollectionType(List.class, ScannedArtifact.class));
+            for (ScannedArtifact artifact : cachedArtifacts) {
+                artifacts.put(artifact.getPath(), artifact);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to read the scan cache of the local forge {}: {}", root, e.getMessage());
+        }
+        return artifacts;
+    }
+
+    private void writeIndex() {
+        try {
+            FileUtils.forceMkdir(new File(root, "contents"));
+            FileUtils.writeByteArrayToFile(new File(root, INDEX_PATH), index);
+            MAPPER.writeValue(new File(root, SCAN_CACHE_PATH), new ArrayList<ScannedArtifact>(scannedArtifacts.values()));
+        } catch (IOException e) {
+            // a read-only repository is scanned again after a restart, the catalog is served from memory meanwhile
+            logger.info("Unable to write the catalog of the local forge {}: {}", root, e.getMessage());
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return DigestUtils.sha256Hex(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
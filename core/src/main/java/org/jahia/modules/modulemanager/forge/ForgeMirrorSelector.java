@@ -0,0 +1,227 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Orders the URLs of a forge and of its mirrors from the fastest to the slowest, based on exponentially weighted
+ * moving averages of their response latency and transfer throughput. Mirrors failing repeatedly are put last until
+ * a cool down period elapsed, so that requests fail over to the next one.
+ */
+class ForgeMirrorSelector {
+
+    /**
+     * Weight of the last measure in the moving averages.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Size used to weigh the throughput of a mirror against its latency: a mirror is scored by the time it would take
+     * to answer and send that many bytes.
+     */
+    private static final double REFERENCE_SIZE = 1024 * 1024;
+
+    /**
+     * Transfers shorter than this are dominated by the latency and do not tell anything about the throughput.
+     */
+    private static final long MIN_MEASURED_SIZE = 64 * 1024;
+
+    private static class MirrorStats {
+
+        private double latency = -1;
+        private double throughput = -1;
+        private int failures;
+        private long retryAt;
+
+        synchronized boolean isHealthy(int failureThreshold, long now) {
+            return failures < failureThreshold || now >= retryAt;
+        }
+
+        synchronized double getScore() {
+            // mirrors that have never been measured come first, so that they get measured
+            double score = latency > 0 ? latency : 0;
+            if (throughput > 0) {
+                score += REFERENCE_SIZE * 1000 / throughput;
+            }
+            return score;
+        }
+
+        synchronized long getRetryAt() {
+            return retryAt;
+        }
+
+        synchronized void recordResponse(long millis) {
+            latency = latency < 0 ? millis : SMOOTHING * millis + (1 - SMOOTHING) * latency;
+            failures = 0;
+        }
+
+        synchronized void recordTransfer(long bytes, long millis) {
+            double bytesPerSecond = bytes * 1000d / Math.max(1, millis);
+            throughput = throughput < 0 ? bytesPerSecond : SMOOTHING * bytesPerSecond + (1 - SMOOTHING) * throughput;
+        }
+
+        synchronized void recordFailure(int failureThreshold, long coolDown, long now) {
+            if (++failures >= failureThreshold) {
+                retryAt = now + coolDown;
+            }
+        }
+    }
+
+    private final int failureThreshold;
+    private final long coolDown;
+    private final ConcurrentMap<String, MirrorStats> stats = new ConcurrentHashMap<String, MirrorStats>();
+
+    /**
+     * @param failureThreshold the number of consecutive failures after which a mirror is put last
+     * @param coolDown the time in milliseconds a failing mirror stays last
+     */
+    ForgeMirrorSelector(int failureThreshold, long coolDown) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * Returns the URLs of the forge and of its mirrors, the one requests should be sent to first coming first.
+     */
+    public List<String> getCandidates(Forge forge) {
+        List<String> urls = forge.getUrls();
+        if (urls.size() == 1) {
+            return urls;
+        }
+        long now = System.currentTimeMillis();
+        // snapshot the stats, they may change while sorting
+        final Map<String, Double> healthyScores = new HashMap<String, Double>();
+        final Map<String, Long> retryTimes = new HashMap<String, Long>();
+        for (String url : urls) {
+            MirrorStats mirrorStats = getStats(url);
+            if (mirrorStats.isHealthy(failureThreshold, now)) {
+                healthyScores.put(url, mirrorStats.getScore());
+            } else {
+                retryTimes.put(url, mirrorStats.getRetryAt());
+            }
+        }
+        List<String> candidates = new ArrayList<String>(urls);
+        Collections.sort(candidates, new Comparator<String>() {
+            @Override
+            public int compare(String url1, String url2) {
+                Double score1 = healthyScores.get(url1);
+                Double score2 = healthyScores.get(url2);
+                if (score1 != null && score2 != null) {
+                    return Double.compare(score1, score2);
+                }
+                if (score1 != null || score2 != null) {
+                    return score1 != null ? -1 : 1;
+                }
+                return Long.compare(retryTimes.get(url1), retryTimes.get(url2));
+            }
+        });
+        return candidates;
+    }
+
+    /**
+     * Rewrites a URL of the forge, or of one of its mirrors, to the given mirror.
+     *
+     * @return the rewritten URL, or the URL as is if it does not belong to the forge
+     */
+    public static String rewrite(Forge forge, String url, String baseUrl) {
+        String urlBase = getBaseUrl(forge, url);
+        return urlBase != null ? baseUrl + url.substring(urlBase.length()) : url;
+    }
+
+    /**
+     * @return the URL of the forge, or of its mirror, the given URL starts with, or <code>null</code> if none
+     */
+    public static String getBaseUrl(Forge forge, String url) {
+        String baseUrl = null;
+        for (String candidate : forge.getUrls()) {
+            if (candidate != null && url.startsWith(candidate) && (baseUrl == null || candidate.length() > baseUrl.length())) {
+                baseUrl = candidate;
+            }
+        }
+        return baseUrl;
+    }
+
+    /**
+     * Records the time a mirror took to send the headers of a successful response.
+     */
+    public void recordResponse(String baseUrl, long millis) {
+        getStats(baseUrl).recordResponse(millis);
+    }
+
+    /**
+     * Records the time a mirror took to send a response body.
+     */
+    public void recordTransfer(String baseUrl, long bytes, long millis) {
+        if (bytes >= MIN_MEASURED_SIZE) {
+            getStats(baseUrl).recordTransfer(bytes, millis);
+        }
+    }
+
+    /**
+     * Records a failed request to a mirror.
+     */
+    public void recordFailure(String baseUrl) {
+        getStats(baseUrl).recordFailure(failureThreshold, coolDown, System.currentTimeMillis());
+    }
+
+    private MirrorStats getStats(String baseUrl) {
+        MirrorStats mirrorStats = stats.get(baseUrl);
+        if (mirrorStats == null) {
+            mirrorStats = new MirrorStats();
+            MirrorStats existing = stats.putIfAbsent(baseUrl, mirrorStats);
+            if (existing != null) {
+                mirrorStats = existing;
+            }
+        }
+        return mirrorStats;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Modules parsed from the last successful catalog response of a forge, together with the HTTP validators of that
+ * response, used to revalidate the catalog with a conditional request, and the time the catalog was requested at.
+ */
+class ForgeModuleList implements Serializable {
+
+    private static final long serialVersionUID = -1353045427640283962L;
+    private final String url;
+    private final String etag;
+    private final String lastModified;
+    private final long loadTime;
+    private final List<Module> modules;
+
+    ForgeModuleList(String url, String etag, String lastModified, long loadTime, List<Module> modules) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.loadTime = loadTime;
+        // the module lists of the forges are kept for the whole life of the service, store them compactly
+        this.modules = ForgeModuleTable.compact(modules);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    public List<Module> getModules() {
+        return modules;
+    }
+}
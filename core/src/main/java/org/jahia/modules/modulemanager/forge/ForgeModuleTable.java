@@ -0,0 +1,559 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.jahia.commons.Version;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectStreamException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, column oriented storage of the modules of a forge catalog.
+ * <p>
+ * The strings of all the modules and versions are deduplicated into a single UTF-8 encoded table and every module or
+ * version field is an index into that table, so that a catalog of tens of thousands of modules only costs a few
+ * primitive arrays instead of as many beans and strings. The modules are read through lightweight {@link Module}
+ * views decoding their fields on access, except for the id, title and group id the catalog is sorted and searched
+ * by, which are kept decoded.
+ * <p>
+ * The versions of each module are stored from the oldest to the newest, so that looking a version up only decodes
+ * and parses the few versions a binary search compares it to.
+ */
+final class ForgeModuleTable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int ID = 0;
+    private static final int VERSION = 1;
+    private static final int DOWNLOAD_URL = 2;
+    private static final int REMOTE_PATH = 3;
+    private static final int REMOTE_URL = 4;
+    private static final int NAME = 5;
+    private static final int GROUP_ID = 6;
+    private static final int FORGE_ID = 7;
+    private static final int ICON = 8;
+    private static final int CHECKSUM = 9;
+    private static final int MODULE_FIELDS = 10;
+
+    private static final int VERSION_VERSION = 0;
+    private static final int VERSION_REQUIRED_VERSION = 1;
+    private static final int VERSION_DOWNLOAD_URL = 2;
+    private static final int VERSION_CHECKSUM = 3;
+    private static final int VERSION_FIELDS = 4;
+
+    private final byte[] strings;
+    private final int[] stringOffsets;
+    private final int[][] moduleColumns;
+    private final String[] ids;
+    private final String[] names;
+    private final String[] groupIds;
+    private final boolean[] installable;
+    // versions of the module i are at versionOffsets[i] (included) to versionOffsets[i + 1] (excluded)
+    private final int[] versionOffsets;
+    private final int[][] versionColumns;
+    // the version numbers parsed so far by version lookups, filled on demand
+    private final Version[] parsedVersions;
+    // download URL hash in the high bits, version index in the low bits, sorted
+    private final long[] downloadUrlIndex;
+    private final int[] versionModules;
+    private final List<Module> modules;
+
+    private ForgeModuleTable(List<Module> sourceModules) {
+        int moduleCount = sourceModules.size();
+        ForgeModuleVersion[][] sourceVersions = new ForgeModuleVersion[moduleCount][];
+        int versionCount = 0;
+        for (int i = 0; i < moduleCount; i++) {
+            sourceVersions[i] = sourceModules.get(i).versionArray();
+            versionCount += sourceVersions[i].length;
+        }
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        // the strings by index, while the table is built, so that the decoded fields share the same instances
+        List<String> stringValues = new ArrayList<String>();
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        int[] offsets = new int[Math.max(16, moduleCount)];
+        moduleColumns = new int[MODULE_FIELDS][moduleCount];
+        ids = new String[moduleCount];
+        names = new String[moduleCount];
+        groupIds = new String[moduleCount];
+        installable = new boolean[moduleCount];
+        versionOffsets = new int[moduleCount + 1];
+        versionColumns = new int[VERSION_FIELDS][versionCount];
+        parsedVersions = new Version[versionCount];
+        versionModules = new int[versionCount];
+        downloadUrlIndex = new long[versionCount];
+        int stringCount = 0;
+        int versionIndex = 0;
+        for (int i = 0; i < moduleCount; i++) {
+            Module module = sourceModules.get(i);
+            String[] fields = new String[]{module.getId(), module.getVersion(), module.getDownloadUrl(), module.getRemotePath(),
+                    module.getRemoteUrl(), module.getName(), module.getGroupId(), module.getForgeId(), module.getIcon(), module.getChecksum()};
+            for (int field = 0; field < MODULE_FIELDS; field++) {
+                String value = fields[field];
+                if (value == null) {
+                    moduleColumns[field][i] = -1;
+                    continue;
+                }
+                Integer index = stringIndexes.get(value);
+                if (index == null) {
+                    offsets = append(offsets, stringCount, stringBytes, value);
+                    index = stringCount++;
+                    stringIndexes.put(value, index);
+                    stringValues.add(value);
+                }
+                moduleColumns[field][i] = index;
+            }
+            ids[i] = getValue(stringValues, moduleColumns[ID][i]);
+            names[i] = getValue(stringValues, moduleColumns[NAME][i]);
+            groupIds[i] = getValue(stringValues, moduleColumns[GROUP_ID][i]);
+            installable[i] = module.isInstallable();
+            versionOffsets[i] = versionIndex;
+            for (ForgeModuleVersion moduleVersion : sourceVersions[i]) {
+                String[] versionFields = new String[]{moduleVersion.getVersion(), moduleVersion.getRequiredVersion(),
+                        moduleVersion.getDownloadUrl(), moduleVersion.getChecksum()};
+                for (int field = 0; field < VERSION_FIELDS; field++) {
+                    String value = versionFields[field];
+                    if (value == null) {
+                        versionColumns[field][versionIndex] = -1;
+                        continue;
+                    }
+                    Integer index = stringIndexes.get(value);
+                    if (index == null) {
+                        offsets = append(offsets, stringCount, stringBytes, value);
+                        index = stringCount++;
+                        stringIndexes.put(value, index);
+                        stringValues.add(value);
+                    }
+                    versionColumns[field][versionIndex] = index;
+                }
+                versionModules[versionIndex] = i;
+                downloadUrlIndex[versionIndex] = indexEntry(moduleVersion.getDownloadUrl(), versionIndex);
+                versionIndex++;
+            }
+        }
+        versionOffsets[moduleCount] = versionIndex;
+        Arrays.sort(downloadUrlIndex);
+        strings = stringBytes.toByteArray();
+        stringOffsets = Arrays.copyOf(offsets, stringCount + 1);
+        stringOffsets[stringCount] = strings.length;
+        TableModule[] views = new TableModule[moduleCount];
+        for (int i = 0; i < moduleCount; i++) {
+            views[i] = new TableModule(this, i);
+        }
+        modules = Collections.unmodifiableList(Arrays.<Module>asList(views));
+    }
+
+    /**
+     * Stores the given modules in a new table.
+     *
+     * @param modules the modules to store
+     * @return read views of the stored modules, in the same order
+     */
+    static List<Module> compact(List<Module> modules) {
+        return new ForgeModuleTable(modules).modules;
+    }
+
+    /**
+     * @param modules modules, some of them possibly stored in tables
+     * @return the tables storing some of the given modules
+     */
+    static List<ForgeModuleTable> getTables(List<Module> modules) {
+        Map<ForgeModuleTable, Boolean> tables = new IdentityHashMap<ForgeModuleTable, Boolean>();
+        for (Module module : modules) {
+            if (module instanceof TableModule) {
+                tables.put(((TableModule) module).table, Boolean.TRUE);
+            }
+        }
+        return new ArrayList<ForgeModuleTable>(tables.keySet());
+    }
+
+    /**
+     * @param downloadUrl the URL of a module artifact
+     * @return the stored module having a version downloaded from the given URL, or <code>null</code> if none
+     */
+    Module findModuleByDownloadUrl(String downloadUrl) {
+        if (downloadUrl == null) {
+            return null;
+        }
+        long hash = indexEntry(downloadUrl, 0);
+        int index = Arrays.binarySearch(downloadUrlIndex, hash);
+        // the search lands on the first version index of the hash, or before it
+        for (int i = index >= 0 ? index : -index - 1; i < downloadUrlIndex.length && (downloadUrlIndex[i] & 0xFFFFFFFF00000000L) == hash; i++) {
+            int versionIndex = (int) downloadUrlIndex[i];
+            if (downloadUrl.equals(getString(versionColumns[VERSION_DOWNLOAD_URL][versionIndex]))) {
+                return modules.get(versionModules[versionIndex]);
+            }
+        }
+        return null;
+    }
+
+    private static long indexEntry(String downloadUrl, int versionIndex) {
+        int hash = downloadUrl != null ? downloadUrl.hashCode() : 0;
+        return ((long) hash << 32) | versionIndex;
+    }
+
+    private static int[] append(int[] offsets, int stringCount, ByteArrayOutputStream stringBytes, String value) {
+        int[] newOffsets = stringCount + 1 < offsets.length ? offsets : Arrays.copyOf(offsets, offsets.length * 2);
+        newOffsets[stringCount] = stringBytes.size();
+        byte[] bytes = value.getBytes(UTF_8);
+        stringBytes.write(bytes, 0, bytes.length);
+        return newOffsets;
+    }
+
+    private static String getValue(List<String> stringValues, int index) {
+        return index >= 0 ? stringValues.get(index) : null;
+    }
+
+    private String getString(int index) {
+        if (index < 0) {
+            return null;
+        }
+        return new String(strings, stringOffsets[index], stringOffsets[index + 1] - stringOffsets[index], UTF_8);
+    }
+
+    private String getModuleString(int field, int module) {
+        return getString(moduleColumns[field][module]);
+    }
+
+    private ForgeModuleVersion[] getVersions(int module) {
+        return getVersions(module, 0);
+    }
+
+    /**
+     * @return the versions of the module from the given position, in the order of the module versions
+     */
+    private ForgeModuleVersion[] getVersions(int module, int from) {
+        ForgeModuleVersion[] versions = new ForgeModuleVersion[getVersionCount(module) - from];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = getVersion(module, from + i);
+        }
+        return versions;
+    }
+
+    private Version getParsedVersion(int versionIndex) {
+        Version version = parsedVersions[versionIndex];
+        if (version == null) {
+            // concurrent lookups may parse the same version twice, which is harmless
+            version = new Version(getString(versionColumns[VERSION_VERSION][versionIndex]));
+            parsedVersions[versionIndex] = version;
+        }
+        return version;
+    }
+
+    private int getVersionCount(int module) {
+        return versionOffsets[module + 1] - versionOffsets[module];
+    }
+
+    private ForgeModuleVersion getVersion(int module, int position) {
+        int versionIndex = versionOffsets[module] + position;
+        return new ForgeModuleVersion(getString(versionColumns[VERSION_VERSION][versionIndex]),
+                getString(versionColumns[VERSION_REQUIRED_VERSION][versionIndex]),
+                getString(versionColumns[VERSION_DOWNLOAD_URL][versionIndex]),
+                getString(versionColumns[VERSION_CHECKSUM][versionIndex]));
+    }
+
+    /**
+     * Searches the sorted versions of the module, only decoding and parsing the version numbers it compares.
+     *
+     * @return the position of the version among the versions of the module, or (-(insertion point) - 1) if the module
+     * does not have that version
+     */
+    private int searchVersion(int module, ForgeModuleVersion key) {
+        int low = 0;
+        int high = getVersionCount(module) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = getParsedVersion(versionOffsets[module] + middle).compareTo(key.toVersion());
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Read view of a module stored in a table. The installable flag, computed against the running platform, is kept in
+     * the table; changing any other field copies the module out of the table into the view itself, which then behaves
+     * like a plain module.
+     */
+    public static final class TableModule extends Module {
+
+        private static final long serialVersionUID = -6160530066683718497L;
+        private final transient ForgeModuleTable table;
+        private final int index;
+        private volatile boolean detached;
+
+        private TableModule(ForgeModuleTable table, int index) {
+            this.table = table;
+            this.index = index;
+        }
+
+        /**
+         * Copies the fields of the module out of the table, before one of them is changed.
+         */
+        private synchronized void detach() {
+            if (detached) {
+                return;
+            }
+            String[] fields = new String[MODULE_FIELDS];
+            for (int field = 0; field < MODULE_FIELDS; field++) {
+                fields[field] = table.getModuleString(field, index);
+            }
+            super.setId(fields[ID]);
+            super.setVersion(fields[VERSION]);
+            super.setDownloadUrl(fields[DOWNLOAD_URL]);
+            super.setRemotePath(fields[REMOTE_PATH]);
+            super.setRemoteUrl(fields[REMOTE_URL]);
+            super.setName(fields[NAME]);
+            super.setGroupId(fields[GROUP_ID]);
+            super.setForgeId(fields[FORGE_ID]);
+            super.setIcon(fields[ICON]);
+            super.setChecksum(fields[CHECKSUM]);
+            super.setVersions(Arrays.asList(table.getVersions(index)));
+            super.setInstallable(table.installable[index]);
+            detached = true;
+        }
+
+        private String get(int field, String detachedValue) {
+            return detached ? detachedValue : table.getModuleString(field, index);
+        }
+
+        @Override
+        public String getId() {
+            return detached ? super.getId() : table.ids[index];
+        }
+
+        @Override
+        public String getVersion() {
+            return get(VERSION, super.getVersion());
+        }
+
+        @Override
+        public String getDownloadUrl() {
+            return get(DOWNLOAD_URL, super.getDownloadUrl());
+        }
+
+        @Override
+        public String getRemotePath() {
+            return get(REMOTE_PATH, super.getRemotePath());
+        }
+
+        @Override
+        public String getRemoteUrl() {
+            return get(REMOTE_URL, super.getRemoteUrl());
+        }
+
+        @Override
+        public String getName() {
+            return detached ? super.getName() : table.names[index];
+        }
+
+        @Override
+        public String getGroupId() {
+            return detached ? super.getGroupId() : table.groupIds[index];
+        }
+
+        @Override
+        public String getForgeId() {
+            return get(FORGE_ID, super.getForgeId());
+        }
+
+        @Override
+        public String getIcon() {
+            return get(ICON, super.getIcon());
+        }
+
+        @Override
+        public String getChecksum() {
+            return get(CHECKSUM, super.getChecksum());
+        }
+
+        @Override
+        ForgeModuleVersion[] versionArray() {
+            return detached ? super.versionArray() : table.getVersions(index);
+        }
+
+        @Override
+        public ForgeModuleVersion findVersion(String version) {
+            if (detached) {
+                return super.findVersion(version);
+            }
+            int position = table.searchVersion(index, new ForgeModuleVersion(version, null, null, null));
+            return position >= 0 ? table.getVersion(index, position) : null;
+        }
+
+        @Override
+        public List<ForgeModuleVersion> getVersionsNewerThan(String version) {
+            if (detached) {
+                return super.getVersionsNewerThan(version);
+            }
+            int position = table.searchVersion(index, new ForgeModuleVersion(version, null, null, null));
+            return Collections.unmodifiableList(Arrays.asList(table.getVersions(index, position >= 0 ? position + 1 : -position - 1)));
+        }
+
+        @Override
+        public ForgeModuleVersion findNewestVersionNewerThan(String version) {
+            if (detached) {
+                return super.findNewestVersionNewerThan(version);
+            }
+            int count = table.getVersionCount(index);
+            if (count == 0) {
+                return null;
+            }
+            Version newest = table.getParsedVersion(table.versionOffsets[index] + count - 1);
+            return newest.compareTo(new ForgeModuleVersion(version, null, null, null).toVersion()) > 0 ? table.getVersion(index, count - 1) : null;
+        }
+
+        @Override
+        public boolean isInstallable() {
+            return detached ? super.isInstallable() : table.installable[index];
+        }
+
+        @Override
+        public void setInstallable(boolean installable) {
+            if (detached) {
+                super.setInstallable(installable);
+            } else {
+                table.installable[index] = installable;
+            }
+        }
+
+        @Override
+        public void setId(String id) {
+            detach();
+            super.setId(id);
+        }
+
+        @Override
+        public void setVersion(String version) {
+            detach();
+            super.setVersion(version);
+        }
+
+        @Override
+        public void setDownloadUrl(String downloadUrl) {
+            detach();
+            super.setDownloadUrl(downloadUrl);
+        }
+
+        @Override
+        public void setName(String name) {
+            detach();
+            super.setName(name);
+        }
+
+        @Override
+        public void setGroupId(String groupId) {
+            detach();
+            super.setGroupId(groupId);
+        }
+
+        @Override
+        public void setRemotePath(String remotePath) {
+            detach();
+            super.setRemotePath(remotePath);
+        }
+
+        @Override
+        public void setRemoteUrl(String remoteUrl) {
+            detach();
+            super.setRemoteUrl(remoteUrl);
+        }
+
+        @Override
+        public void setForgeId(String forgeId) {
+            detach();
+            super.setForgeId(forgeId);
+        }
+
+        @Override
+        public void setIcon(String icon) {
+            detach();
+            super.setIcon(icon);
+        }
+
+        @Override
+        public void setChecksum(String checksum) {
+            detach();
+            super.setChecksum(checksum);
+        }
+
+        @Override
+        public void setVersions(List<ForgeModuleVersion> versions) {
+            detach();
+            super.setVersions(versions);
+        }
+
+        /**
+         * Serializes the view as a plain module, the table is not serialized.
+         */
+        private Object writeReplace() throws ObjectStreamException {
+            Module module = new Module();
+            module.setId(getId());
+            module.setVersion(getVersion());
+            module.setDownloadUrl(getDownloadUrl());
+            module.setRemotePath(getRemotePath());
+            module.setRemoteUrl(getRemoteUrl());
+            module.setName(getName());
+            module.setGroupId(getGroupId());
+            module.setForgeId(getForgeId());
+            module.setIcon(getIcon());
+            module.setChecksum(getChecksum());
+            module.setVersions(Arrays.asList(versionArray()));
+            module.setInstallable(isInstallable());
+            return module;
+        }
+    }
+}
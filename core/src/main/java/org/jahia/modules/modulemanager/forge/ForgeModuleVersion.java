@@ -0,0 +1,126 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.jahia.commons.Version;
+
+import java.io.Serializable;
+
+/**
+ * A version of a forge module that is compatible with the running platform.
+ */
+public class ForgeModuleVersion implements Serializable, Comparable<ForgeModuleVersion> {
+
+    private static final long serialVersionUID = -2870325460917339151L;
+    private String version;
+    private String requiredVersion;
+    private String downloadUrl;
+    private String checksum;
+    private transient Version parsedVersion;
+
+    public ForgeModuleVersion() {
+        super();
+    }
+
+    public ForgeModuleVersion(String version, String requiredVersion, String downloadUrl, String checksum) {
+        this.version = version;
+        this.requiredVersion = requiredVersion;
+        this.downloadUrl = downloadUrl;
+        this.checksum = checksum;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+        this.parsedVersion = null;
+    }
+
+    /**
+     * @return the minimum platform version required by this module version
+     */
+    public String getRequiredVersion() {
+        return requiredVersion;
+    }
+
+    public void setRequiredVersion(String requiredVersion) {
+        this.requiredVersion = requiredVersion;
+    }
+
+    public String getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    public void setDownloadUrl(String downloadUrl) {
+        this.downloadUrl = downloadUrl;
+    }
+
+    /**
+     * @return the checksum published by the forge for the artifact of this version, if any
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the parsed version, computed once
+     */
+    Version toVersion() {
+        if (parsedVersion == null) {
+            parsedVersion = new Version(version);
+        }
+        return parsedVersion;
+    }
+
+    @Override
+    public int compareTo(ForgeModuleVersion o) {
+        return toVersion().compareTo(o.toVersion());
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over the id, title and group id of the catalog modules.
+ * <p>
+ * The index is updated incrementally when a new catalog snapshot is published: only the modules that were added,
+ * removed or re-parsed since the previous snapshot are re-indexed.
+ */
+class ForgeSearchIndex {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final int ID_WEIGHT = 8;
+    private static final int TITLE_WEIGHT = 4;
+    private static final int GROUP_ID_WEIGHT = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // token -> module key -> weight, sorted to answer prefix queries
+    private final NavigableMap<String, Map<String, Integer>> postings = new TreeMap<String, Map<String, Integer>>();
+    // module key -> indexed tokens, to remove a module from the postings
+    private final Map<String, Set<String>> moduleTokens = new HashMap<String, Set<String>>();
+    private Map<String, Module> modules = new HashMap<String, Module>();
+    private ForgeCatalog catalog;
+
+    /**
+     * Re-indexes the modules that changed between the indexed catalog and the given one.
+     *
+     * @param newCatalog the catalog to index
+     */
+    public void update(ForgeCatalog newCatalog) {
+        Map<String, Module> newModules = new HashMap<String, Module>();
+        for (Module module : newCatalog.getModules()) {
+            newModules.put(ForgeCatalog.getModuleKey(module.getId(), module.getGroupId()), module);
+        }
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Module> entry : modules.entrySet()) {
+                if (newModules.get(entry.getKey()) != entry.getValue()) {
+                    remove(entry.getKey());
+                }
+            }
+            for (Map.Entry<String, Module> entry : newModules.entrySet()) {
+                if (modules.get(entry.getKey()) != entry.getValue()) {
+                    add(entry.getKey(), entry.getValue());
+                }
+            }
+            modules = newModules;
+            catalog = newCatalog;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the modules matching all the terms of the query, either exactly or as a prefix.
+     *
+     * @param query the search terms, an empty query matches all the modules
+     * @param offset the position of the first module to return
+     * @param limit the maximum number of modules to return
+     * @return the requested page of modules, best matches first
+     */
+    public ForgeSearchResult search(String query, int offset, int limit) {
+        Set<String> terms = tokenize(query);
+        lock.readLock().lock();
+        try {
+            List<Module> matches;
+            if (terms.isEmpty()) {
+                matches = catalog != null ? catalog.getModules() : Collections.<Module>emptyList();
+            } else {
+                matches = rank(terms);
+            }
+            int from = Math.min(Math.max(offset, 0), matches.size());
+            int to = Math.min(from + Math.max(limit, 0), matches.size());
+            return new ForgeSearchResult(new ArrayList<Module>(matches.subList(from, to)), matches.size(), from, catalog);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Module> rank(Set<String> terms) {
+        Map<String, Integer> scores = null;
+        for (String term : terms) {
+            Map<String, Integer> termScores = new HashMap<String, Integer>();
+            for (Map.Entry<String, Map<String, Integer>> posting : postings.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+                // exact matches rank above prefix matches
+                int factor = posting.getKey().length() == term.length() ? 2 : 1;
+                for (Map.Entry<String, Integer> moduleWeight : posting.getValue().entrySet()) {
+                    int score = moduleWeight.getValue() * factor;
+                    Integer current = termScores.get(moduleWeight.getKey());
+                    if (current == null || current < score) {
+                        termScores.put(moduleWeight.getKey(), score);
+                    }
+                }
+            }
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                // all the terms must match
+                Map<String, Integer> combined = new HashMap<String, Integer>();
+                for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+                    Integer termScore = termScores.get(entry.getKey());
+                    if (termScore != null) {
+                        combined.put(entry.getKey(), entry.getValue() + termScore);
+                    }
+                }
+                scores = combined;
+            }
+            if (scores.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        final Map<Module, Integer> moduleScores = new HashMap<Module, Integer>();
+        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+            moduleScores.put(modules.get(entry.getKey()), entry.getValue());
+        }
+        List<Module> ranked = new ArrayList<Module>(moduleScores.keySet());
+        Collections.sort(ranked, new Comparator<Module>() {
+            @Override
+            public int compare(Module m1, Module m2) {
+                int result = moduleScores.get(m2).compareTo(moduleScores.get(m1));
+                return result != 0 ? result : m1.compareTo(m2);
+            }
+        });
+        return ranked;
+    }
+
+    private void add(String key, Module module) {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        addTokens(weights, module.getId(), ID_WEIGHT);
+        addTokens(weights, module.getName(), TITLE_WEIGHT);
+        addTokens(weights, module.getGroupId(), GROUP_ID_WEIGHT);
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            Map<String, Integer> posting = postings.get(entry.getKey());
+            if (posting == null) {
+                posting = new HashMap<String, Integer>();
+                postings.put(entry.getKey(), posting);
+            }
+            posting.put(key, entry.getValue());
+        }
+        moduleTokens.put(key, weights.keySet());
+    }
+
+    private void remove(String key) {
+        Set<String> tokens = moduleTokens.remove(key);
+        if (tokens == null) {
+            return;
+        }
+        for (String token : tokens) {
+            Map<String, Integer> posting = postings.get(token);
+            if (posting != null) {
+                posting.remove(key);
+                if (posting.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    private static void addTokens(Map<String, Integer> weights, String value, int weight) {
+        Set<String> tokens = tokenize(value);
+        if (!tokens.isEmpty()) {
+            // the whole value is also indexed, so that "module-manager" matches as such
+            tokens.add(StringUtils.lowerCase(value.trim()));
+        }
+        for (String token : tokens) {
+            Integer current = weights.get(token);
+            if (current == null || current < weight) {
+                weights.put(token, weight);
+            }
+        }
+    }
+
+    private static Set<String> tokenize(String value) {
+        Set<String> tokens = new LinkedHashSet<String>();
+        if (StringUtils.isBlank(value)) {
+            return tokens;
+        }
+        for (String token : TOKEN_SEPARATOR.split(StringUtils.lowerCase(value))) {
+            if (token.length() > 0) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.forge;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of ranked forge modules matching a search.
+ */
+public class ForgeSearchResult {
+
+    private final List<Module> modules;
+    private final int total;
+    private final int offset;
+    private final ForgeCatalog catalog;
+
+    ForgeSearchResult(List<Module> modules, int total, int offset, ForgeCatalog catalog) {
+        this.modules = Collections.unmodifiableList(modules);
+        this.total = total;
+        this.offset = offset;
+        this.catalog = catalog;
+    }
+
+    /**
+     * @return the modules of the page, best matches first
+     */
+    public List<Module> getModules() {
+        return modules;
+    }
+
+    /**
+     * @return the total number of modules matching the search
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the position of the first module of the page in the whole result
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the catalog snapshot the search was run against, <code>null</code> if no catalog was indexed yet
+     */
+    public ForgeCatalog getCatalog() {
+        return catalog;
+    }
+}
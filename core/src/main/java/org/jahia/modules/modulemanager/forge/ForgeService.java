@@ -43,13 +43,16 @@
  */
 package org.jahia.modules.modulemanager.forge;
 
-import org.apache.commons.httpclient.HttpClient;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
-import org.apache.xerces.impl.dv.util.Base64;
 import org.jahia.bin.Jahia;
-import org.jahia.commons.Version;
 import org.jahia.services.content.JCRCallback;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.services.content.JCRNodeWrapper;
@@ -57,20 +60,40 @@ import org.jahia.services.content.JCRSessionWrapper;
 import org.jahia.services.content.JCRTemplate;
 import org.jahia.services.content.decorator.JCRUserNode;
 import org.jahia.services.notification.HttpClientService;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.jahia.settings.SettingsBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
-import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
+import javax.jcr.Value;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Service to manage Forges
@@ -80,31 +103,106 @@ public class ForgeService {
 
     private static final Logger logger = LoggerFactory.getLogger(ForgeService.class);
 
+    private static final int MAX_ICON_SIZE = 1048576;
+
     private HttpClientService httpClientService;
-    private Set<Forge> forges = new HashSet<Forge>();
-    private List<Module> modules = new ArrayList<Module>();
+    private Set<Forge> forges = new CopyOnWriteArraySet<Forge>();
+    private final AtomicReference<ForgeCatalog> catalog = new AtomicReference<ForgeCatalog>(
+            new ForgeCatalog(Collections.<String, Module>emptyMap(), 0, new Date().getTime()));
+    private final ForgeSearchIndex searchIndex = new ForgeSearchIndex();
+    private final AtomicBoolean backgroundRefreshQueued = new AtomicBoolean();
+    private final AtomicReference<FutureTask<ForgeCatalog>> catalogRefresh = new AtomicReference<FutureTask<ForgeCatalog>>();
+    // the module lists the published catalog has been built from, by forge identifier
+    private volatile Map<String, ForgeModuleList> catalogModuleLists = Collections.emptyMap();
+    // the last time the published catalog was found up to date, and the earliest time a failed forge may be retried
+    private volatile long catalogCheckTime;
+    private volatile long forgeRetryTime = Long.MAX_VALUE;
+    private Map<String, ForgeModuleList> forgeModuleLists = new ConcurrentHashMap<String, ForgeModuleList>();
     private long loadModulesDelay;
-    private long lastModulesLoad = new Date().getTime();
-    private boolean flushModules = true;
+    private volatile boolean flushModules = true;
+    // an explicit flush, which a node reading the shared catalog serves from the forges rather than from that catalog
+    private volatile boolean flushRequested;
+    private int forgeLoadThreads = 4;
+    private ExecutorService forgeLoadExecutor;
+    private ScheduledExecutorService refreshScheduler;
+    private volatile ScheduledExecutorService deadlineScheduler;
+    private String cacheDirectory;
+    private ForgeCatalogStore catalogStore;
+    private String sharedCatalogFile;
+    private ForgeCatalogStore sharedCatalogStore;
+    private volatile long sharedCatalogLastModified;
+    private volatile long sharedCatalogLength;
+    private long artifactCacheMaxSize;
+    private ForgeArtifactCache artifactCache;
+    private long iconCacheMaxSize = 20971520;
+    private long iconMemoryCacheMaxSize = 4194304;
+    private int iconThumbnailSize = 0;
+    private volatile ForgeIconCache iconCache;
+    private final ConcurrentMap<String, Long> failedIcons = new ConcurrentHashMap<String, Long>();
+    private int downloadAttempts = 3;
+    private ForgeArtifactDownloader artifactDownloader;
+    private int maxConcurrentDownloads = 2;
+    private long downloadBandwidth = 0;
+    private ForgeDownloadManager downloadManager;
+    private long segmentedDownloadThreshold = 52428800;
+    private int downloadSegments = 3;
+    private ExecutorService downloadSegmentExecutor;
+    private int forgeConnectTimeout = 5000;
+    private int forgeReadTimeout = 20000;
+    private int forgeFailureThreshold = 3;
+    private long forgeCoolDown = 300000;
+    private boolean forgeIncrementalLoad = false;
+    private int forgeMaxConnections = 4;
+    private volatile ForgeHttpClients httpClients;
+    private volatile ForgeMirrorSelector mirrorSelector = new ForgeMirrorSelector(forgeFailureThreshold, forgeCoolDown);
+    private final ConcurrentMap<String, ForgeLocalRepository> localRepositories = new ConcurrentHashMap<String, ForgeLocalRepository>();
+    private final ConcurrentMap<String, ForgeCircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, ForgeCircuitBreaker>();
 
-    public ForgeService() {
-        loadForges();
-    }
+    /**
+     * Loads the forge settings, then the catalog persisted by a previous run. It runs on a background thread once the
+     * service is started, or on the thread of the first caller needing the forges if that caller comes earlier.
+     */
+    private final FutureTask<Void> initialization = new FutureTask<Void>(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            loadForges();
+            loadStoredCatalog();
+            return null;
+        }
+    });
 
     public Set<Forge> getForges() {
+        awaitInitialization();
         return forges;
     }
 
     public List<Module> getModules() {
-        return modules;
+        return catalog.get().getModules();
+    }
+
+    /**
+     * @return the last published snapshot of the forge catalog
+     */
+    public ForgeCatalog getCatalog() {
+        return catalog.get();
     }
 
     public void addForge(Forge forge) {
+        awaitInitialization();
+        putForge(forge);
+    }
+
+    private void putForge(Forge forge) {
         for (Forge f : forges) {
             if (StringUtils.equals(forge.getId(), f.getId())) {
                 f.setUser(forge.getUser());
                 f.setUrl(forge.getUrl());
                 f.setPassword(forge.getPassword());
+                f.setMirrors(forge.getMirrors());
+                if (httpClients != null) {
+                    // the forge may have moved, its open connections may be useless
+                    httpClients.remove(f.getId());
+                }
                 return;
             }
         }
@@ -112,19 +210,69 @@ public class ForgeService {
     }
 
     public void removeForge(Forge forge) {
+        awaitInitialization();
+        deleteForge(forge);
+    }
+
+    private void deleteForge(Forge forge) {
         for (Forge f : forges) {
             if (StringUtils.equals(forge.getId(), f.getId())) {
                 forges.remove(f);
+                forgeModuleLists.remove(f.getId());
+                circuitBreakers.remove(f.getId());
+                if (httpClients != null) {
+                    httpClients.remove(f.getId());
+                }
                 return;
             }
         }
     }
 
-    public void loadForges() {
+    /**
+     * Loads the forge settings, updating the forges already loaded, adding the new ones and removing the deleted ones.
+     */
+    public synchronized void loadForges() {
+        List<Forge> storedForges = readForges();
+        if (storedForges == null) {
+            return;
+        }
+        boolean changed = false;
+        Set<String> storedIds = new HashSet<String>();
+        for (Forge storedForge : storedForges) {
+            storedIds.add(storedForge.getId());
+            Forge forge = getForge(storedForge.getId());
+            if (forge == null || !hasSameSettings(forge, storedForge)) {
+                putForge(storedForge);
+                changed = true;
+            }
+        }
+        for (Forge forge : forges) {
+            // forges without identifier have not been saved yet
+            if (forge.getId() != null && !storedIds.contains(forge.getId())) {
+                deleteForge(forge);
+                changed = true;
+            }
+        }
+        if (changed && catalog.get().getVersion() > 0) {
+            // the forges changed on another node or through another service, reload their catalogs
+            flushModules = true;
+        }
+    }
+
+    private static boolean hasSameSettings(Forge forge, Forge other) {
+        return StringUtils.equals(forge.getUrl(), other.getUrl()) && StringUtils.equals(forge.getUser(), other.getUser())
+                && StringUtils.equals(forge.getPassword(), other.getPassword()) && forge.getMirrors().equals(other.getMirrors());
+    }
+
+    /**
+     * @return the forges stored in the settings, or <code>null</code> if they cannot be read
+     */
+    private List<Forge> readForges() {
         try {
-            JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<Object>() {
+            return JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<List<Forge>>() {
                 @Override
-                public Object doInJCR(JCRSessionWrapper session) throws RepositoryException {
+                public List<Forge> doInJCR(JCRSessionWrapper session) throws RepositoryException {
+                    List<Forge> storedForges = new ArrayList<Forge>();
                     if (session.itemExists("/settings/forgesSettings")) {
                         Node forgesRoot = session.getNode("/settings/forgesSettings");
                         if (forgesRoot != null) {
@@ -139,35 +287,39 @@ public class ForgeService {
                                 f.setUrl(n.getProperty("j:url").getString());
                                 f.setUser(n.getProperty("j:user").getString());
                                 f.setPassword(n.getProperty(JCRUserNode.J_PASSWORD).getString());
-                                forges.add(f);
+                                if (n.hasProperty("jmm:mirrors")) {
+                                    List<String> mirrors = new ArrayList<String>();
+                                    for (Value mirror : n.getProperty("jmm:mirrors").getValues()) {
+                                        mirrors.add(mirror.getString());
+                                    }
+                                    f.setMirrors(mirrors);
+                                }
+                                storedForges.add(f);
                             }
                         }
                     }
-                    return null;
+                    return storedForges;
                 }
             });
 
         } catch (RepositoryException e) {
             logger.error(e.getMessage(),e);
+            return null;
         }
     }
 
+    /**
+     * Stores the forges in the settings. Only the forge nodes that changed are written, so that an update does not
+     * rewrite, and replicate across the cluster, the settings of all the forges.
+     */
     public void saveForges() {
+        // saving before the settings are loaded would delete the stored forges
+        awaitInitialization();
         try {
             JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<Object>() {
                 @Override
                 public Object doInJCR(JCRSessionWrapper session) throws RepositoryException {
 
-                    Node forgesRoot;
-
-                    // delete all previous nodes
-                    try {
-                        forgesRoot = session.getNode("/settings/forgesSettings");
-                        forgesRoot.remove();
-                    } catch (PathNotFoundException e) {
-                        // do nothing
-                    }
-
                     if (!session.getNode("/").hasNode("settings")) {
                         session.getNode("/").addNode("settings", "jnt:globalSettings");
                         session.save();
@@ -178,16 +330,35 @@ public class ForgeService {
                         session.save();
                     }
 
-                    forgesRoot = session.getNode("/settings/forgesSettings");
-                    // write all forges
+                    Node forgesRoot = session.getNode("/settings/forgesSettings");
+                    Map<String, Node> forgeNodes = new HashMap<String, Node>();
+                    NodeIterator ni = forgesRoot.getNodes();
+                    while (ni.hasNext()) {
+                        Node n = ni.nextNode();
+                        if (n.isNodeType("jnt:forgeServerSettings")) {
+                            forgeNodes.put(n.getIdentifier(), n);
+                        }
+                    }
+                    // update the existing forges and add the new ones
                     for (Forge forge : forges) {
-                        Node forgeNode = forgesRoot.addNode(JCRContentUtils.generateNodeName(forge.getUrl()), "jnt:forgeServerSettings");
-                        forgeNode.setProperty("j:url", forge.getUrl());
-                        forgeNode.setProperty("j:user", forge.getUser());
-                        forgeNode.setProperty(JCRUserNode.J_PASSWORD, forge.getPassword());
+                        Node forgeNode = forge.getId() != null ? forgeNodes.remove(forge.getId()) : null;
+                        if (forgeNode == null) {
+                            forgeNode = forgesRoot.addNode(JCRContentUtils.findAvailableNodeName(forgesRoot,
+                                    JCRContentUtils.generateNodeName(forge.getUrl())), "jnt:forgeServerSettings");
+                        }
+                        setProperty(forgeNode, "j:url", forge.getUrl());
+                        setProperty(forgeNode, "j:user", forge.getUser());
+                        setProperty(forgeNode, JCRUserNode.J_PASSWORD, forge.getPassword());
+                        setMirrors(forgeNode, forge.getMirrors());
                         forge.setId(forgeNode.getIdentifier());
                     }
-                    session.save();
+                    // delete the removed ones
+                    for (Node removedNode : forgeNodes.values()) {
+                        removedNode.remove();
+                    }
+                    if (session.hasPendingChanges()) {
+                        session.save();
+                    }
                     return null;
                 }
             });
@@ -196,115 +367,849 @@ public class ForgeService {
         }
     }
 
-    public Module findModule(String name, String groupId) {
-        for (Module m : modules) {
-            if (StringUtils.equals(name, m.getId()) && m.getGroupId().equals(groupId)) {
-                return m;
+    private static void setProperty(Node node, String name, String value) throws RepositoryException {
+        if (node.hasProperty(name) ? !StringUtils.equals(node.getProperty(name).getString(), value) : value != null) {
+            node.setProperty(name, value);
+        }
+    }
+
+    private static void setMirrors(Node node, List<String> mirrors) throws RepositoryException {
+        if (mirrors.isEmpty()) {
+            if (node.hasProperty("jmm:mirrors")) {
+                node.getProperty("jmm:mirrors").remove();
             }
+            return;
         }
-        return null;
+        if (node.hasProperty("jmm:mirrors")) {
+            List<String> storedMirrors = new ArrayList<String>();
+            for (Value mirror : node.getProperty("jmm:mirrors").getValues()) {
+                storedMirrors.add(mirror.getString());
+            }
+            if (storedMirrors.equals(mirrors)) {
+                return;
+            }
+        } else if (!node.isNodeType("jmm:forgeMirrors")) {
+            node.addMixin("jmm:forgeMirrors");
+        }
+        node.setProperty("jmm:mirrors", mirrors.toArray(new String[mirrors.size()]));
+    }
+
+    /**
+     * Searches the forge catalog on the module id, title and group id.
+     *
+     * @param query the search terms, matched as words or word prefixes; an empty query returns all the modules
+     * @param offset the position of the first module to return
+     * @param limit the maximum number of modules to return
+     * @return the requested page of matching modules, best matches first
+     */
+    public ForgeSearchResult searchModules(String query, int offset, int limit) {
+        return searchIndex.search(query, offset, limit);
     }
 
+    public Module findModule(String name, String groupId) {
+        return catalog.get().findModule(name, groupId);
+    }
 
+
+    /**
+     * Returns the modules of the forge catalog. An explicitly flushed or never loaded catalog is refreshed
+     * synchronously; an expired one is served as is while it is refreshed in the background.
+     *
+     * @return the modules of the forge catalog
+     */
     public List<Module> loadModules() {
-        if(flushModules || (lastModulesLoad + loadModulesDelay) < new Date().getTime()){
-            modules.clear();
-            for (Forge forge : forges) {
-                String url = forge.getUrl() + "/contents/modules-repository.moduleList.json";
-                Map<String, String> headers = new HashMap<String, String>();
-                if (!StringUtils.isEmpty(forge.getUser())) {
-                    headers.put("Authorization", "Basic " + Base64.encode((forge.getUser() + ":" + forge.getPassword()).getBytes()));
-                }
-                headers.put("accept", "application/json");
+        awaitInitialization();
+        ForgeCatalog current = catalog.get();
+        // without a lifetime there is no background refresh, an expired catalog is refreshed on every call
+        if (flushModules || current.getVersion() == 0 || (loadModulesDelay <= 0 && isExpired(current))) {
+            return refreshCatalog().getModules();
+        }
+        if (isExpired(current)) {
+            refreshCatalogInBackground();
+        }
+        return current.getModules();
+    }
 
-                String jsonModuleList = httpClientService.executeGet(url, headers);
-                try {
-                    JSONArray modulesRoot = new JSONArray(jsonModuleList);
+    private boolean isExpired(ForgeCatalog forgeCatalog) {
+        return getRefreshTime(forgeCatalog, loadModulesDelay) < new Date().getTime();
+    }
 
-                    JSONArray moduleList = modulesRoot.getJSONObject(0).getJSONArray("modules");
-                    for (int i = 0; i < moduleList.length(); i++) {
-                        boolean add = true;
+    /**
+     * @return the time the catalog has to be refreshed at: once the given lifetime elapsed since it was last checked
+     * against the forges, or as soon as a forge that failed may be requested again
+     */
+    private long getRefreshTime(ForgeCatalog forgeCatalog, long lifetime) {
+        return Math.min(Math.max(forgeCatalog.getTimestamp(), catalogCheckTime) + lifetime, forgeRetryTime);
+    }
 
-                        final JSONObject moduleObject = moduleList.getJSONObject(i);
-                        for (Module m : modules) {
-                            if (StringUtils.equals(m.getId(), moduleObject.getString("name")) && StringUtils.equals(m.getGroupId(), moduleObject.getString("groupId"))) {
-                                add = false;
-                                break;
-                            }
-                        }
-                        if (add) {
-                            final JSONArray moduleVersions = moduleObject.getJSONArray("versions");
+    /**
+     * Publishes the catalog persisted by a previous run, if any, so that it can be served right after startup.
+     */
+    private void loadStoredCatalog() {
+        if (catalogStore == null || catalog.get().getVersion() > 0) {
+            return;
+        }
+        ForgeCatalog storedForgeCatalog = publishStoredCatalog(catalogStore.read(), 1);
+        if (storedForgeCatalog != null) {
+            flushModules = false;
+            logger.info("Loaded {} forge modules from {}", storedForgeCatalog.size(), catalogStore.getFile());
+        }
+    }
 
-                            SortedMap<Version, JSONObject> sortedVersions = new TreeMap<Version, JSONObject>();
+    /**
+     * Publishes the stored catalogs of the current forges.
+     *
+     * @return the published catalog, or <code>null</code> if none of the current forges has a stored catalog
+     */
+    private ForgeCatalog publishStoredCatalog(ForgeCatalogStore.StoredCatalog storedCatalog, long version) {
+        if (storedCatalog == null) {
+            return null;
+        }
+        Map<String, ForgeModuleList> storedLists = ForgeCatalogStore.toForgeModuleLists(storedCatalog);
+        Map<String, ForgeModuleList> publishedLists = new HashMap<String, ForgeModuleList>();
+        List<List<Module>> storedModules = new ArrayList<List<Module>>();
+        for (Forge forge : forges) {
+            ForgeModuleList storedList = storedLists.get(forge.getId());
+            // ignore the catalogs of forges that have been removed or changed since
+            if (storedList != null && StringUtils.equals(storedList.getUrl(), getCatalogKey(forge))) {
+                forgeModuleLists.put(forge.getId(), storedList);
+                publishedLists.put(forge.getId(), storedList);
+                storedModules.add(storedList.getModules());
+            }
+        }
+        if (storedModules.isEmpty()) {
+            return null;
+        }
+        ForgeCatalog storedForgeCatalog = new ForgeCatalog(mergeForgeModules(storedModules), version, storedCatalog.getTimestamp());
+        publishCatalog(storedForgeCatalog, publishedLists);
+        return storedForgeCatalog;
+    }
 
-                            final Version jahiaVersion = new Version(Jahia.VERSION);
+    /**
+     * @return <code>true</code> if the catalog is fetched by the processing server and this node only reads it
+     */
+    private boolean isSharedCatalogReader() {
+        return sharedCatalogStore != null && !SettingsBean.getInstance().isProcessingServer();
+    }
 
-                            for (int j = 0; j < moduleVersions.length(); j++) {
-                                JSONObject object = moduleVersions.getJSONObject(j);
-                                Version version = new Version(object.getString("version"));
-                                Version requiredVersion = new Version(StringUtils.substringAfter(object.getString("requiredVersion"), "version-"));
-                                if (requiredVersion.compareTo(jahiaVersion) <= 0) {
-                                    sortedVersions.put(version, object);
-                                }
-                            }
-                            if (!sortedVersions.isEmpty()) {
-                                Module module = new Module();
-                                JSONObject versionObject = sortedVersions.get(sortedVersions.lastKey());
-                                module.setRemoteUrl(moduleObject.getString("remoteUrl"));
-                                module.setRemotePath(moduleObject.getString("path"));
-                                if (moduleObject.has("icon")) {
-                                    module.setIcon(moduleObject.getString("icon"));
-                                }
-                                module.setVersion(versionObject.getString("version"));
-                                module.setName(moduleObject.getString("title"));
-                                module.setId(moduleObject.getString("name"));
-                                module.setGroupId(moduleObject.getString("groupId"));
-                                module.setDownloadUrl(versionObject.getString("downloadUrl"));
-                                module.setForgeId(forge.getId());
-                                modules.add(module);
-                            }
-                        }
+    /**
+     * Publishes the catalog last written to the shared store by the processing server, if it changed since it was
+     * last read. The catalog is loaded from the forges instead when it is explicitly flushed, and while the shared
+     * one is missing, unreadable or expired, when the processing server has not published it yet or is down.
+     */
+    private ForgeCatalog loadSharedCatalog() {
+        awaitInitialization();
+        if (flushRequested) {
+            logger.debug("Forge catalog flushed, loading it from the forges");
+            return fetchCatalog();
+        }
+        File sharedFile = sharedCatalogStore.getFile();
+        long lastModified = sharedFile.lastModified();
+        long length = sharedFile.length();
+        // the processing server writes the catalog again at least once per lifetime, even when it did not change
+        if (lastModified == 0 || (loadModulesDelay > 0 && lastModified + 2 * loadModulesDelay < new Date().getTime())) {
+            logger.debug("No up to date forge catalog in {}, loading it from the forges", sharedFile);
+            return fetchCatalog();
+        }
+        // two writes within the resolution of the modification time are told apart by their size
+        if (lastModified == sharedCatalogLastModified && length == sharedCatalogLength) {
+            flushModules = false;
+            return catalog.get();
+        }
+        ForgeCatalogStore.StoredCatalog storedCatalog = sharedCatalogStore.read();
+        ForgeCatalog current = catalog.get();
+        if (storedCatalog != null && current.getVersion() > 0 && storedCatalog.getTimestamp() == current.getTimestamp()) {
+            // written again by the processing server without any change, only its freshness is updated
+            flushModules = false;
+            sharedCatalogLastModified = lastModified;
+            sharedCatalogLength = length;
+            catalogCheckTime = lastModified;
+            return current;
+        }
+        ForgeCatalog sharedCatalog = publishStoredCatalog(storedCatalog, current.getVersion() + 1);
+        if (sharedCatalog == null) {
+            logger.debug("Unable to use the forge catalog in {}, loading it from the forges", sharedFile);
+            return fetchCatalog();
+        }
+        flushModules = false;
+        sharedCatalogLastModified = lastModified;
+        sharedCatalogLength = length;
+        // the processing server retries its failed forges itself
+        forgeRetryTime = Long.MAX_VALUE;
+        storeCatalog(sharedCatalog);
+        logger.debug("Loaded {} forge modules from {}", sharedCatalog.size(), sharedCatalogStore.getFile());
+        return sharedCatalog;
+    }
+
+    /**
+     * Starts the background refresh of the catalog, which revalidates it shortly before it expires.
+     */
+    public synchronized void start() {
+        catalogStore = new ForgeCatalogStore(new File(getCacheDirectory(), "forge-catalog.json.gz"));
+        if (StringUtils.isNotBlank(sharedCatalogFile)) {
+            sharedCatalogStore = new ForgeCatalogStore(new File(sharedCatalogFile));
+        }
+        if (initialization.isDone()) {
+            // the forges have been loaded by an early caller, before the catalog store was available
+            loadStoredCatalog();
+        } else {
+            // do not delay the start of the module with the repository access
+            newThreadFactory("forge-settings-loader-").newThread(initialization).start();
+        }
+        if (artifactCacheMaxSize > 0) {
+            artifactCache = new ForgeArtifactCache(new File(getCacheDirectory(), "artifacts"), artifactCacheMaxSize);
+            artifactCache.deleteStalePartialFiles();
+        } else {
+            ForgeArtifactCache.deleteStalePartialFiles(getDownloadDirectory());
+        }
+        iconCache = new ForgeIconCache(iconCacheMaxSize > 0 ? new ForgeArtifactCache(new File(getCacheDirectory(), "icons"), iconCacheMaxSize) : null,
+                iconMemoryCacheMaxSize, iconThumbnailSize);
+        mirrorSelector = new ForgeMirrorSelector(forgeFailureThreshold, forgeCoolDown);
+        if (httpClients == null) {
+            httpClients = new ForgeHttpClients(httpClientService, forgeMaxConnections, forgeConnectTimeout, forgeReadTimeout);
+        }
+        downloadManager = new ForgeDownloadManager(maxConcurrentDownloads, downloadBandwidth);
+        if (downloadSegmentExecutor == null) {
+            downloadSegmentExecutor = Executors.newCachedThreadPool(newThreadFactory("forge-download-segment-"));
+        }
+        // the segments of a download must not take all the connections of a forge, its catalog would wait for them
+        int maxDownloadSegments = Math.min(downloadSegments, httpClients.getMaxSegmentConnections());
+        if (maxDownloadSegments < downloadSegments) {
+            logger.info("Downloading artifacts in at most {} segments, below the {} connections to each forge", maxDownloadSegments, forgeMaxConnections);
+        }
+        artifactDownloader = new ForgeArtifactDownloader(httpClients, mirrorSelector, downloadAttempts, forgeReadTimeout, downloadManager.getBandwidthLimiter(),
+                segmentedDownloadThreshold, maxDownloadSegments, downloadSegmentExecutor);
+        if (deadlineScheduler == null) {
+            deadlineScheduler = Executors.newSingleThreadScheduledExecutor(newThreadFactory("forge-request-deadline-"));
+        }
+        if (refreshScheduler != null || loadModulesDelay <= 0) {
+            return;
+        }
+        refreshScheduler = Executors.newSingleThreadScheduledExecutor(newThreadFactory("forge-catalog-refresh-"));
+        long checkInterval = Math.max(1000L, Math.min(60000L, loadModulesDelay / 10));
+        refreshScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ForgeCatalog current = catalog.get();
+                    // refresh when 90% of the catalog lifetime has elapsed, so that readers never see it expired
+                    if (current.getVersion() == 0 || getRefreshTime(current, loadModulesDelay - loadModulesDelay / 10) < new Date().getTime()) {
+                        refreshCatalog();
                     }
-                } catch (JSONException e) {
-                    logger.error("unable to parse JSON return string for " + url);
                 } catch (Exception e) {
-                    logger.error("unable to get store information" + e.getMessage());
+                    // never let an exception cancel the scheduled refresh
+                    logger.error("unable to refresh store information", e);
                 }
             }
-            Collections.sort(modules);
-            lastModulesLoad = new Date().getTime();
-            flushModules = false;
+        }, 0, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a refresh of the catalog, unless one is queued already: the requests seeing the expired catalog until it
+     * is refreshed all share that single refresh.
+     */
+    private synchronized void refreshCatalogInBackground() {
+        if (refreshScheduler != null && !refreshScheduler.isShutdown() && backgroundRefreshQueued.compareAndSet(false, true)) {
+            refreshScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // the scheduled refresh may have run in the meantime
+                        if (isExpired(catalog.get())) {
+                            refreshCatalog();
+                        }
+                    } finally {
+                        backgroundRefreshQueued.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Refreshes the catalog, or waits for the refresh already in progress if another thread started one.
+     *
+     * @return the catalog resulting from the refresh
+     */
+    private ForgeCatalog refreshCatalog() {
+        FutureTask<ForgeCatalog> refresh = catalogRefresh.get();
+        if (refresh == null) {
+            FutureTask<ForgeCatalog> newRefresh = new FutureTask<ForgeCatalog>(new Callable<ForgeCatalog>() {
+                @Override
+                public ForgeCatalog call() throws Exception {
+                    // in a cluster sharing the catalog, only the processing server contacts the forges
+                    return isSharedCatalogReader() ? loadSharedCatalog() : fetchCatalog();
+                }
+            });
+            if (catalogRefresh.compareAndSet(null, newRefresh)) {
+                refresh = newRefresh;
+                try {
+                    newRefresh.run();
+                } finally {
+                    catalogRefresh.compareAndSet(newRefresh, null);
+                }
+            } else {
+                refresh = catalogRefresh.get();
+            }
+        }
+        if (refresh != null) {
+            try {
+                return refresh.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.error("unable to refresh store information", e.getCause());
+            }
+        }
+        return catalog.get();
+    }
+
+    private ForgeCatalog fetchCatalog() {
+        awaitInitialization();
+        // an explicit flush always reloads the full catalogs, even when incremental loads are enabled
+        final boolean fullLoad = flushModules;
+        // reset the flags first, so that a flush requested while fetching triggers another refresh
+        flushModules = false;
+        flushRequested = false;
+        // the forges served from their last good modules
+        final Collection<Forge> failedForges = new ConcurrentLinkedQueue<Forge>();
+        // fetch the catalogs of all forges concurrently, then merge them in the forge iteration order
+        // so that the first forge declaring a module wins, as before
+        List<Forge> loadedForges = new ArrayList<Forge>(forges);
+        List<Future<List<Module>>> forgeModules = new ArrayList<Future<List<Module>>>();
+        for (final Forge forge : loadedForges) {
+            forgeModules.add(getForgeLoadExecutor().submit(new Callable<List<Module>>() {
+                @Override
+                public List<Module> call() throws Exception {
+                    return loadForgeModules(forge, fullLoad, failedForges);
+                }
+            }));
+        }
+        List<List<Module>> loadedModules = new ArrayList<List<Module>>();
+        for (int i = 0; i < forgeModules.size(); i++) {
+            try {
+                loadedModules.add(forgeModules.get(i).get());
+            } catch (InterruptedException e) {
+                // do not publish a partial catalog
+                Thread.currentThread().interrupt();
+                return catalog.get();
+            } catch (ExecutionException e) {
+                failedForges.add(loadedForges.get(i));
+                logger.error("unable to get store information" + e.getCause().getMessage());
+            }
+        }
+        long now = new Date().getTime();
+        // the failed forges are retried once their cool-down elapsed, not after the lifetime of the catalog
+        forgeRetryTime = getRetryTime(failedForges, now);
+        Map<String, ForgeModuleList> loadedLists = getForgeModuleLists(loadedForges);
+        ForgeCatalog current = catalog.get();
+        if (!fullLoad && current.getVersion() > 0 && loadedLists.equals(catalogModuleLists)) {
+            // no forge returned anything new: keep serving the current snapshot, so that its ETag, the stored catalog
+            // and the search index are left as is
+            catalogCheckTime = now;
+            if (sharedCatalogStore != null && !isSharedCatalogReader()
+                    && sharedCatalogStore.getFile().lastModified() + loadModulesDelay / 2 < now) {
+                // the nodes reading the shared catalog tell an unchanged catalog from a processing server down by its
+                // modification time
+                storeCatalog(current);
+            }
+            return current;
+        }
+        ForgeCatalog newCatalog = new ForgeCatalog(mergeForgeModules(loadedModules), current.getVersion() + 1, now);
+        publishCatalog(newCatalog, loadedLists);
+        storeCatalog(newCatalog);
+        return newCatalog;
+    }
+
+    /**
+     * @return the current module lists of the given forges, by forge identifier
+     */
+    private Map<String, ForgeModuleList> getForgeModuleLists(Collection<Forge> forges) {
+        Map<String, ForgeModuleList> lists = new HashMap<String, ForgeModuleList>();
+        for (Forge forge : forges) {
+            ForgeModuleList forgeModuleList = forgeModuleLists.get(forge.getId());
+            if (forgeModuleList != null) {
+                lists.put(forge.getId(), forgeModuleList);
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * @return the earliest time one of the failed forges may be requested again at, or {@link Long#MAX_VALUE} if none
+     * failed
+     */
+    private long getRetryTime(Collection<Forge> failedForges, long now) {
+        long retryTime = Long.MAX_VALUE;
+        for (Forge forge : failedForges) {
+            // the local forges have no circuit breaker, they are read again after a cool-down as well
+            long forgeRetryTime = ForgeLocalRepository.isLocal(forge) ? now + forgeCoolDown : getCircuitBreaker(forge).getRetryTime();
+            retryTime = Math.min(retryTime, forgeRetryTime);
+        }
+        return retryTime;
+    }
+
+    private void publishCatalog(ForgeCatalog newCatalog, Map<String, ForgeModuleList> moduleLists) {
+        // concurrent publishers, like a flush and a background refresh, must not leave the index built from another
+        // snapshot than the published one
+        synchronized (searchIndex) {
+            catalog.set(newCatalog);
+            catalogModuleLists = moduleLists;
+            catalogCheckTime = newCatalog.getTimestamp();
+            searchIndex.update(newCatalog);
+        }
+    }
+
+    private static Map<String, Module> mergeForgeModules(List<List<Module>> forgeModules) {
+        Map<String, Module> mergedModules = new HashMap<String, Module>();
+        for (List<Module> modules : forgeModules) {
+            for (Module module : modules) {
+                String key = ForgeCatalog.getModuleKey(module.getId(), module.getGroupId());
+                if (!mergedModules.containsKey(key)) {
+                    mergedModules.put(key, module);
+                }
+            }
+        }
+        return mergedModules;
+    }
+
+    private void storeCatalog(ForgeCatalog storedCatalog) {
+        if (catalogStore == null) {
+            return;
+        }
+        Map<String, ForgeModuleList> storedLists = new LinkedHashMap<String, ForgeModuleList>();
+        for (Forge forge : forges) {
+            ForgeModuleList forgeModuleList = forgeModuleLists.get(forge.getId());
+            if (forgeModuleList != null) {
+                storedLists.put(forge.getId(), forgeModuleList);
+            }
+        }
+        catalogStore.write(storedCatalog.getTimestamp(), storedLists);
+        if (sharedCatalogStore != null && !isSharedCatalogReader()) {
+            sharedCatalogStore.write(storedCatalog.getTimestamp(), storedLists);
+        }
+    }
+
+    private static String getCatalogUrl(Forge forge) {
+        return getCatalogUrl(forge.getUrl());
+    }
+
+    /**
+     * @return the catalog URL of the forge as requested by this platform, which identifies the loaded module list: the
+     * modules and validators of a list loaded for another URL or platform version do not apply
+     */
+    private static String getCatalogKey(Forge forge) {
+        return getCatalogUrl(forge) + "?jahiaVersion=" + Jahia.VERSION;
+    }
+
+    private static String getCatalogUrl(String baseUrl) {
+        return baseUrl + "/contents/modules-repository.moduleList.json";
+    }
+
+    private List<Module> loadForgeModules(Forge forge, boolean fullLoad, Collection<Forge> failedForges) {
+        String url = getCatalogKey(forge);
+        ForgeModuleList previous = forgeModuleLists.get(forge.getId());
+        if (previous != null && !StringUtils.equals(previous.getUrl(), url)) {
+            // forge URL changed since the last load, validators do not apply anymore
+            previous = null;
+        }
+        // the last good modules of the forge are served while it is unreachable
+        List<Module> lastGoodModules = previous != null ? previous.getModules() : Collections.<Module>emptyList();
+        if (ForgeLocalRepository.isLocal(forge)) {
+            return loadLocalForgeModules(forge, lastGoodModules, failedForges);
+        }
+        ForgeCircuitBreaker circuitBreaker = getCircuitBreaker(forge);
+        if (!circuitBreaker.allowRequest()) {
+            logger.debug("Skipping forge {} after repeated failures", forge.getUrl());
+            failedForges.add(forge);
+            return lastGoodModules;
         }
+        // fail over to the next mirror until one of them answers
+        for (String baseUrl : mirrorSelector.getCandidates(forge)) {
+            List<Module> forgeModules = loadForgeModules(forge, baseUrl, previous, fullLoad);
+            if (forgeModules != null) {
+                circuitBreaker.recordSuccess();
+                return forgeModules;
+            }
+        }
+        circuitBreaker.recordFailure();
+        failedForges.add(forge);
+        return lastGoodModules;
+    }
 
-        return modules;
+    private List<Module> loadLocalForgeModules(Forge forge, List<Module> lastGoodModules, Collection<Forge> failedForges) {
+        long loadTime = new Date().getTime();
+        try {
+            List<Module> forgeModules = getLocalRepository(forge).loadModules(forge.getId());
+            ForgeModuleList forgeModuleList = new ForgeModuleList(getCatalogKey(forge), null, null, loadTime, forgeModules);
+            forgeModuleLists.put(forge.getId(), forgeModuleList);
+            return forgeModuleList.getModules();
+        } catch (IOException e) {
+            logger.error("unable to read local forge " + forge.getUrl() + ": " + e.getMessage());
+            failedForges.add(forge);
+            return lastGoodModules;
+        }
+    }
+
+    private ForgeLocalRepository getLocalRepository(Forge forge) throws IOException {
+        ForgeLocalRepository localRepository = localRepositories.get(forge.getUrl());
+        if (localRepository == null) {
+            localRepository = new ForgeLocalRepository(ForgeLocalRepository.getDirectory(forge.getUrl()));
+            ForgeLocalRepository existing = localRepositories.putIfAbsent(forge.getUrl(), localRepository);
+            if (existing != null) {
+                localRepository = existing;
+            }
+        }
+        return localRepository;
     }
 
+    /**
+     * Loads the catalog of a forge from the forge itself or from one of its mirrors.
+     *
+     * @return the modules of the forge, or <code>null</code> if the catalog could not be loaded
+     */
+    private List<Module> loadForgeModules(Forge forge, String baseUrl, ForgeModuleList previous, boolean fullLoad) {
+        String url = getCatalogUrl(baseUrl);
+        long loadTime = new Date().getTime();
+        // forges honouring these parameters only return the versions this platform can install, and optionally only
+        // the modules changed since the last load; the parser still filters the versions for the other forges
+        boolean incremental = forgeIncrementalLoad && !fullLoad && previous != null && previous.getLoadTime() > 0;
+        List<NameValuePair> queryParameters = new ArrayList<NameValuePair>();
+        queryParameters.add(new NameValuePair("jahiaVersion", Jahia.VERSION));
+        if (incremental) {
+            queryParameters.add(new NameValuePair("since", Long.toString(previous.getLoadTime())));
+        }
+        GetMethod httpMethod = new GetMethod(url);
+        httpMethod.setQueryString(queryParameters.toArray(new NameValuePair[queryParameters.size()]));
+        if (forge.getAuthorization() != null) {
+            httpMethod.addRequestHeader("Authorization", forge.getAuthorization());
+        }
+        httpMethod.addRequestHeader("accept", "application/json");
+        ForgeHttpEncoding.acceptCompressed(httpMethod);
+        if (previous != null) {
+            if (previous.getEtag() != null) {
+                httpMethod.addRequestHeader("If-None-Match", previous.getEtag());
+            }
+            if (previous.getLastModified() != null) {
+                httpMethod.addRequestHeader("If-Modified-Since", previous.getLastModified());
+            }
+        }
+        httpMethod.getParams().setSoTimeout(forgeReadTimeout);
+        try {
+            int status = executeWithDeadline(httpMethod, forge, baseUrl);
+            if (status == HttpServletResponse.SC_NOT_MODIFIED && previous != null) {
+                mirrorSelector.recordResponse(baseUrl, new Date().getTime() - loadTime);
+                return previous.getModules();
+            }
+            if (status == HttpServletResponse.SC_OK) {
+                mirrorSelector.recordResponse(baseUrl, new Date().getTime() - loadTime);
+                List<Module> forgeModules = new ForgeCatalogParser(forge.getId()).parse(ForgeHttpEncoding.getResponseBodyAsStream(httpMethod));
+                if (incremental) {
+                    forgeModules = mergeChangedModules(previous.getModules(), forgeModules);
+                }
+                // the validators are kept under the forge catalog URL, whichever mirror answered
+                ForgeModuleList forgeModuleList = new ForgeModuleList(getCatalogKey(forge), getResponseHeader(httpMethod, "ETag"),
+                        getResponseHeader(httpMethod, "Last-Modified"), loadTime, forgeModules);
+                forgeModuleLists.put(forge.getId(), forgeModuleList);
+                // serve the compact modules, the parsed ones are only garbage now
+                return forgeModuleList.getModules();
+            }
+            logger.error("unable to get store information for " + url + ", server returned status " + status);
+        } catch (JsonProcessingException e) {
+            logger.error("unable to parse JSON return string for " + url);
+        } catch (Exception e) {
+            logger.error("unable to get store information" + e.getMessage());
+        } finally {
+            httpMethod.releaseConnection();
+        }
+        mirrorSelector.recordFailure(baseUrl);
+        return null;
+    }
+
+    /**
+     * Applies the modules returned by an incremental load to the previously loaded ones. A forge ignoring the
+     * <code>since</code> parameter returns all its modules, which then simply replace the previous ones.
+     */
+    private static List<Module> mergeChangedModules(List<Module> previousModules, List<Module> changedModules) {
+        Map<String, Module> mergedModules = new LinkedHashMap<String, Module>();
+        for (Module module : previousModules) {
+            mergedModules.put(ForgeCatalog.getModuleKey(module.getId(), module.getGroupId()), module);
+        }
+        for (Module module : changedModules) {
+            mergedModules.put(ForgeCatalog.getModuleKey(module.getId(), module.getGroupId()), module);
+        }
+        return new ArrayList<Module>(mergedModules.values());
+    }
+
+    /**
+     * Executes the request, aborting it if no response has been received once the connect and read timeouts elapsed.
+     */
+    private int executeWithDeadline(final HttpMethod httpMethod, Forge forge, String baseUrl) throws IOException {
+        ScheduledFuture<?> deadline = null;
+        ScheduledExecutorService scheduler = deadlineScheduler;
+        if (scheduler != null && !scheduler.isShutdown()) {
+            deadline = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    httpMethod.abort();
+                }
+            }, forgeConnectTimeout + forgeReadTimeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+            return httpClients.getHttpClient(forge, baseUrl).executeMethod(httpMethod);
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+    }
+
+    private ForgeCircuitBreaker getCircuitBreaker(Forge forge) {
+        ForgeCircuitBreaker circuitBreaker = circuitBreakers.get(forge.getId());
+        if (circuitBreaker == null) {
+            circuitBreaker = new ForgeCircuitBreaker(forgeFailureThreshold, forgeCoolDown);
+            ForgeCircuitBreaker existing = circuitBreakers.putIfAbsent(forge.getId(), circuitBreaker);
+            if (existing != null) {
+                circuitBreaker = existing;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    private static String getResponseHeader(HttpMethod httpMethod, String name) {
+        Header header = httpMethod.getResponseHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private synchronized ExecutorService getForgeLoadExecutor() {
+        if (forgeLoadExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(forgeLoadThreads, forgeLoadThreads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), newThreadFactory("forge-catalog-loader-"));
+            // do not keep idle threads between two catalog refreshes
+            executor.allowCoreThreadTimeOut(true);
+            forgeLoadExecutor = executor;
+        }
+        return forgeLoadExecutor;
+    }
+
+    private static ThreadFactory newThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    public synchronized void destroy() {
+        if (refreshScheduler != null) {
+            refreshScheduler.shutdownNow();
+            refreshScheduler = null;
+        }
+        if (deadlineScheduler != null) {
+            deadlineScheduler.shutdownNow();
+            deadlineScheduler = null;
+        }
+        if (forgeLoadExecutor != null) {
+            forgeLoadExecutor.shutdownNow();
+            forgeLoadExecutor = null;
+        }
+        if (downloadSegmentExecutor != null) {
+            downloadSegmentExecutor.shutdownNow();
+            downloadSegmentExecutor = null;
+        }
+        if (httpClients != null) {
+            httpClients.shutdown();
+            httpClients = null;
+        }
+    }
+
+    /**
+     * @return the time the catalog currently served was last checked against the forges at, in milliseconds
+     */
     public long getLastUpdateTime(){
-        return lastModulesLoad;
+        return Math.max(catalog.get().getTimestamp(), catalogCheckTime);
     }
 
+    /**
+     * Requests a full reload of the forge catalog on its next access. A node reading the catalog shared by the
+     * processing server loads it from the forges itself then, and reads the shared catalog again once the processing
+     * server published a new one.
+     */
     public void flushModules(){
         flushModules = true;
+        flushRequested = true;
+    }
+
+    /**
+     * Returns the icon of a module of the catalog, fetching it from the forge the first time only.
+     *
+     * @param groupId the module group id
+     * @param id the module id
+     * @return the icon of the module or <code>null</code> if it has none or it cannot be fetched
+     */
+    public ForgeIcon getModuleIcon(String groupId, String id) {
+        Module module = catalog.get().findModule(id, groupId);
+        ForgeIconCache cache = iconCache;
+        if (module == null || StringUtils.isEmpty(module.getIcon()) || cache == null) {
+            return null;
+        }
+        String url = module.getIcon();
+        if (!StringUtils.startsWithIgnoreCase(url, "http://") && !StringUtils.startsWithIgnoreCase(url, "https://")) {
+            logger.debug("Ignoring icon {} of module {}:{}, only HTTP icons are fetched", new Object[]{url, groupId, id});
+            return null;
+        }
+        ForgeIcon icon = cache.get(url);
+        if (icon != null) {
+            return icon;
+        }
+        Long failure = failedIcons.get(url);
+        if (failure != null && failure + forgeCoolDown > new Date().getTime()) {
+            // do not fetch a missing icon again on every rendering of the forge view
+            return null;
+        }
+        byte[] data = fetchIcon(getForge(module.getForgeId()), url);
+        icon = data != null ? cache.put(url, data) : null;
+        if (icon == null) {
+            failedIcons.put(url, new Date().getTime());
+            return null;
+        }
+        failedIcons.remove(url);
+        return icon;
+    }
+
+    private byte[] fetchIcon(Forge forge, String url) {
+        GetMethod httpMethod = new GetMethod(url);
+        // a redirect could lead to another scheme or to an internal host
+        httpMethod.setFollowRedirects(false);
+        // icons are usually hosted by the forge itself, but may be anywhere
+        if (forge != null && forge.getAuthorization() != null && ForgeMirrorSelector.getBaseUrl(forge, url) != null) {
+            httpMethod.addRequestHeader("Authorization", forge.getAuthorization());
+        }
+        httpMethod.getParams().setSoTimeout(forgeReadTimeout);
+        try {
+            int status = httpClientService.getHttpClient(url).executeMethod(httpMethod);
+            if (status != HttpServletResponse.SC_OK) {
+                logger.debug("Unable to fetch icon {}, server returned status {}", url, status);
+                return null;
+            }
+            long length = httpMethod.getResponseContentLength();
+            if (length > MAX_ICON_SIZE) {
+                logger.debug("Ignoring icon {} of {} bytes", url, length);
+                return null;
+            }
+            InputStream in = httpMethod.getResponseBodyAsStream();
+            byte[] data = in != null ? IOUtils.toByteArray(new BoundedInputStream(in, MAX_ICON_SIZE + 1)) : null;
+            return data != null && data.length > 0 && data.length <= MAX_ICON_SIZE ? data : null;
+        } catch (Exception e) {
+            logger.debug("Unable to fetch icon " + url + ": " + e.getMessage());
+            return null;
+        } finally {
+            httpMethod.releaseConnection();
+        }
     }
 
     public File downloadModuleFromForge(String forgeId, String url) {
-        for (Forge forge : forges) {
-            if (forgeId.equals(forge.getId())) {
-                GetMethod httpMethod = new GetMethod(url);
-                httpMethod.addRequestHeader("Authorization", "Basic " + Base64.encode((forge.getUser() + ":" + forge.getPassword()).getBytes()));
-                HttpClient httpClient = httpClientService.getHttpClient(url);
-                try {
-                    int status = httpClient.executeMethod(httpMethod);
-                    if (status == HttpServletResponse.SC_OK) {
-                        File f = File.createTempFile("module", "." + StringUtils.substringAfterLast(url, "."));
-                        FileUtils.copyInputStreamToFile(httpMethod.getResponseBodyAsStream(), f);
-                        return f;
+        awaitInitialization();
+        final Forge forge = getForge(forgeId);
+        if (forge == null) {
+            return null;
+        }
+        ForgeModuleVersion moduleVersion = catalog.get().findVersionByDownloadUrl(url);
+        final String checksum = moduleVersion != null ? moduleVersion.getChecksum() : null;
+        final ForgeArtifactCache cache = artifactCache;
+        try {
+            if (ForgeLocalRepository.isLocal(forge)) {
+                // the repository is on disk already, nothing to download nor to cache
+                return getLocalRepository(forge).checkout(url, checksum);
+            }
+            if (cache != null) {
+                File cached = cache.get(url, checksum);
+                if (cached != null) {
+                    logger.debug("Using cached artifact {} for {}", cached, url);
+                    return cache.checkout(cached);
+                }
+            }
+            String key = ForgeArtifactCache.getKey(url, checksum);
+            if (cache == null) {
+                ForgeArtifactCache.deleteStalePartialFiles(getDownloadDirectory());
+            }
+            final File partial = cache != null ? cache.getPartialFile(url, checksum) : new File(getDownloadDirectory(), key + ".part");
+            final String downloadUrl = url;
+            // concurrent requests for the same artifact share a single transfer, and thus the same partial file
+            return downloadManager.download(key, new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    if (cache != null) {
+                        File cached = cache.get(downloadUrl, checksum);
+                        if (cached != null) {
+                            return cached;
+                        }
+                    }
+                    if (!artifactDownloader.download(forge, downloadUrl, partial, checksum)) {
+                        FileUtils.deleteQuietly(partial);
+                        return null;
+                    }
+                    return cache != null ? cache.put(downloadUrl, checksum, partial) : partial;
+                }
+            }, new ForgeDownloadManager.ResultHandler() {
+                @Override
+                public File checkout(File downloaded) throws IOException {
+                    if (cache != null) {
+                        return cache.checkout(downloaded);
                     }
-                } catch (IOException e) {
-                    logger.error(e.getMessage(),e);  //To change body of catch statement use File | Settings | File Templates.
+                    File f = File.createTempFile("module", "." + StringUtils.substringAfterLast(downloadUrl, "."));
+                    Files.copy(downloaded.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    return f;
                 }
 
+                @Override
+                public void release(File downloaded) {
+                    // artifacts larger than the cache are not cached, delete them like when there is no cache
+                    if (cache == null || !cache.isCached(downloaded)) {
+                        FileUtils.deleteQuietly(downloaded);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            logger.error(e.getMessage(),e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the directory the artifacts are downloaded into when they are not cached
+     */
+    private static File getDownloadDirectory() {
+        return new File(FileUtils.getTempDirectory(), "forge-downloads");
+    }
 
+    /**
+     * Waits for the forge settings to be loaded, loading them on the current thread if no other thread started to.
+     */
+    private void awaitInitialization() {
+        if (initialization.isDone()) {
+            return;
+        }
+        // a no-op if the load is already running or complete
+        initialization.run();
+        try {
+            initialization.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("unable to load forge settings", e.getCause());
+        }
+    }
+
+    private Forge getForge(String forgeId) {
+        for (Forge forge : forges) {
+            if (StringUtils.equals(forgeId, forge.getId())) {
+                return forge;
             }
         }
         return null;
@@ -317,4 +1222,143 @@ public class ForgeService {
     public void setLoadModulesDelay(long loadModulesDelay) {
         this.loadModulesDelay = loadModulesDelay;
     }
+
+    /**
+     * @return the directory holding the forge caches, by default the <code>module-manager</code> folder of the
+     * Jahia var directory
+     */
+    public String getCacheDirectory() {
+        return StringUtils.isNotBlank(cacheDirectory) ? cacheDirectory
+                : new File(SettingsBean.getInstance().getJahiaVarDiskPath(), "module-manager").getPath();
+    }
+
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @param sharedCatalogFile file, on a file system shared by the cluster nodes, the processing server publishes
+     * the forge catalog to for the other nodes to read instead of contacting the forges; empty to have each node
+     * fetch the catalog on its own. The other nodes still load the catalog from the forges when it is explicitly
+     * flushed, or while the shared one is missing or stale.
+     */
+    public void setSharedCatalogFile(String sharedCatalogFile) {
+        this.sharedCatalogFile = sharedCatalogFile;
+    }
+
+    /**
+     * @param iconCacheMaxSize maximum size in bytes of the icons cached on disk, 0 to keep them in memory only
+     */
+    public void setIconCacheMaxSize(long iconCacheMaxSize) {
+        this.iconCacheMaxSize = iconCacheMaxSize;
+    }
+
+    /**
+     * @param iconMemoryCacheMaxSize maximum size in bytes of the icons cached in memory
+     */
+    public void setIconMemoryCacheMaxSize(long iconMemoryCacheMaxSize) {
+        this.iconMemoryCacheMaxSize = iconMemoryCacheMaxSize;
+    }
+
+    /**
+     * @param iconThumbnailSize size in pixels of the thumbnails the module icons are re-encoded to when first fetched,
+     * 0 to serve them as published by the forge
+     */
+    public void setIconThumbnailSize(int iconThumbnailSize) {
+        this.iconThumbnailSize = iconThumbnailSize;
+    }
+
+    /**
+     * @param artifactCacheMaxSize maximum size in bytes of the cache of downloaded artifacts, 0 to disable it
+     */
+    public void setArtifactCacheMaxSize(long artifactCacheMaxSize) {
+        this.artifactCacheMaxSize = artifactCacheMaxSize;
+    }
+
+    /**
+     * @param downloadAttempts number of times a failed artifact download is resumed before giving up
+     */
+    public void setDownloadAttempts(int downloadAttempts) {
+        this.downloadAttempts = downloadAttempts;
+    }
+
+    /**
+     * @param forgeConnectTimeout time in milliseconds allowed to connect to a forge
+     */
+    public void setForgeConnectTimeout(int forgeConnectTimeout) {
+        this.forgeConnectTimeout = forgeConnectTimeout;
+    }
+
+    /**
+     * @param forgeReadTimeout time in milliseconds a forge may stay silent while answering
+     */
+    public void setForgeReadTimeout(int forgeReadTimeout) {
+        this.forgeReadTimeout = forgeReadTimeout;
+    }
+
+    /**
+     * @param forgeFailureThreshold number of consecutive failures after which a forge is skipped
+     */
+    public void setForgeFailureThreshold(int forgeFailureThreshold) {
+        this.forgeFailureThreshold = forgeFailureThreshold;
+    }
+
+    /**
+     * @param forgeCoolDown time in milliseconds a failing forge is skipped for
+     */
+    public void setForgeCoolDown(long forgeCoolDown) {
+        this.forgeCoolDown = forgeCoolDown;
+    }
+
+    /**
+     * @param forgeIncrementalLoad <code>true</code> to only request the modules changed since the last load, for forges
+     * supporting the <code>since</code> parameter; removed modules then only disappear on the next flush
+     */
+    public void setForgeIncrementalLoad(boolean forgeIncrementalLoad) {
+        this.forgeIncrementalLoad = forgeIncrementalLoad;
+    }
+
+    /**
+     * @param maxConcurrentDownloads maximum number of artifacts downloaded from the forges at the same time
+     */
+    public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+    }
+
+    /**
+     * @param downloadBandwidth maximum total throughput of the artifact downloads in bytes per second, 0 for no limit
+     */
+    public void setDownloadBandwidth(long downloadBandwidth) {
+        this.downloadBandwidth = downloadBandwidth;
+    }
+
+    /**
+     * @param segmentedDownloadThreshold size in bytes from which artifacts are downloaded as parallel range requests,
+     * 0 to always use a single stream
+     */
+    public void setSegmentedDownloadThreshold(long segmentedDownloadThreshold) {
+        this.segmentedDownloadThreshold = segmentedDownloadThreshold;
+    }
+
+    /**
+     * @param downloadSegments number of range requests a large artifact is downloaded with, at most one less than the
+     * maximum number of connections to each forge
+     */
+    public void setDownloadSegments(int downloadSegments) {
+        this.downloadSegments = downloadSegments;
+    }
+
+    /**
+     * @param forgeMaxConnections maximum number of connections kept open to each forge
+     */
+    public void setForgeMaxConnections(int forgeMaxConnections) {
+        this.forgeMaxConnections = forgeMaxConnections;
+    }
+
+    /**
+     * @param forgeLoadThreads maximum number of forge catalogs fetched at the same time
+     */
+    public void setForgeLoadThreads(int forgeLoadThreads) {
+        this.forgeLoadThreads = Math.max(1, forgeLoadThreads);
+    }
 }
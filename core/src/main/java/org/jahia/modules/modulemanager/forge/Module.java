@@ -48,6 +48,9 @@ import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Bean for Private App Store Module
@@ -55,6 +58,7 @@ import java.io.Serializable;
 public class Module implements Serializable, Comparable<Module> {
 
     private static final long serialVersionUID = 5507292105100115258L;
+    private static final ForgeModuleVersion[] NO_VERSIONS = new ForgeModuleVersion[0];
     private String id;
     private String version;
     private String downloadUrl;
@@ -64,6 +68,8 @@ public class Module implements Serializable, Comparable<Module> {
     private String groupId;
     private String forgeId;
     private String icon;
+    private String checksum;
+    private ForgeModuleVersion[] versions = NO_VERSIONS;
     private boolean installable;
 
     public String getId() {
@@ -138,6 +144,71 @@ public class Module implements Serializable, Comparable<Module> {
         this.icon = icon;
     }
 
+    /**
+     * @return the checksum published by the forge for the artifact of this version, if any
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return all the versions of the module compatible with the running platform, from the oldest to the newest
+     */
+    public List<ForgeModuleVersion> getVersions() {
+        return Collections.unmodifiableList(Arrays.asList(versionArray()));
+    }
+
+    /**
+     * @return the sorted versions of the module
+     */
+    ForgeModuleVersion[] versionArray() {
+        return versions;
+    }
+
+    public void setVersions(List<ForgeModuleVersion> versions) {
+        ForgeModuleVersion[] sortedVersions = versions.toArray(new ForgeModuleVersion[versions.size()]);
+        Arrays.sort(sortedVersions);
+        this.versions = sortedVersions;
+    }
+
+    /**
+     * @param version a module version
+     * @return the given version of the module or <code>null</code> if it is not available
+     */
+    public ForgeModuleVersion findVersion(String version) {
+        ForgeModuleVersion[] versions = versionArray();
+        int index = Arrays.binarySearch(versions, new ForgeModuleVersion(version, null, null, null));
+        return index >= 0 ? versions[index] : null;
+    }
+
+    /**
+     * @param version a module version
+     * @return the available versions of the module that are newer than the given one, from the oldest to the newest
+     */
+    public List<ForgeModuleVersion> getVersionsNewerThan(String version) {
+        ForgeModuleVersion[] versions = versionArray();
+        int index = Arrays.binarySearch(versions, new ForgeModuleVersion(version, null, null, null));
+        int from = index >= 0 ? index + 1 : -index - 1;
+        return Collections.unmodifiableList(Arrays.asList(versions).subList(from, versions.length));
+    }
+
+    /**
+     * @param version a module version
+     * @return the newest available version of the module if it is newer than the given one, <code>null</code> otherwise
+     */
+    public ForgeModuleVersion findNewestVersionNewerThan(String version) {
+        ForgeModuleVersion[] versions = versionArray();
+        if (versions.length == 0) {
+            return null;
+        }
+        ForgeModuleVersion newest = versions[versions.length - 1];
+        return newest.compareTo(new ForgeModuleVersion(version, null, null, null)) > 0 ? newest : null;
+    }
+
     public boolean isInstallable() {
         return installable;
     }
@@ -148,7 +219,7 @@ public class Module implements Serializable, Comparable<Module> {
 
     @Override
     public int compareTo(Module o) {
-        return new CompareToBuilder().append(id, o.id).append(groupId, o.groupId).toComparison();
+        return new CompareToBuilder().append(getId(), o.getId()).append(getGroupId(), o.getGroupId()).toComparison();
     }
     
     @Override
@@ -157,7 +228,8 @@ public class Module implements Serializable, Comparable<Module> {
             return true;
         }
 
-        if (o != null && this.getClass() == o.getClass()) {
+        // compact read views of the catalog equal the plain modules they were built from
+        if (o instanceof Module) {
             Module castOther = (Module) o;
             return new EqualsBuilder().append(this.getId(), castOther.getId())
                     .append(this.getGroupId(), castOther.getGroupId())
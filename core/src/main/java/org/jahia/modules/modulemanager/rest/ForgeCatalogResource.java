@@ -0,0 +1,370 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.modulemanager.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.modules.modulemanager.forge.ForgeCatalog;
+import org.jahia.modules.modulemanager.forge.ForgeIcon;
+import org.jahia.modules.modulemanager.forge.ForgeSearchResult;
+import org.jahia.modules.modulemanager.forge.ForgeService;
+import org.jahia.modules.modulemanager.forge.Module;
+import org.jahia.services.SpringContextSingleton;
+
+/**
+ * The REST service exposing the forge catalog, page by page.
+ * <p>
+ * Responses carry an ETag derived from the catalog snapshot they were computed from, so that clients can revalidate
+ * a page with a conditional request and get a <code>304 Not Modified</code> until the catalog is refreshed.
+ */
+@Path("/api/bundles/_forge")
+@Produces({ MediaType.APPLICATION_JSON })
+public class ForgeCatalogResource {
+
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 500;
+    // icons rarely change, and their URL changes with the module version in the forge view
+    private static final int ICON_MAX_AGE = 604800;
+
+    /**
+     * Sort orders of the forge catalog pages.
+     */
+    public enum SortOrder {
+
+        /**
+         * Best search matches first; same as <code>ID</code> if no query is given.
+         */
+        RELEVANCE(null),
+
+        /**
+         * By module id, then group id.
+         */
+        ID(new Comparator<Module>() {
+            @Override
+            public int compare(Module m1, Module m2) {
+                return m1.compareTo(m2);
+            }
+        }),
+
+        /**
+         * By module title, case insensitive.
+         */
+        NAME(new Comparator<Module>() {
+            @Override
+            public int compare(Module m1, Module m2) {
+                int result = StringUtils.defaultString(m1.getName()).compareToIgnoreCase(StringUtils.defaultString(m2.getName()));
+                return result != 0 ? result : m1.compareTo(m2);
+            }
+        }),
+
+        /**
+         * By group id, then module id.
+         */
+        GROUPID(new Comparator<Module>() {
+            @Override
+            public int compare(Module m1, Module m2) {
+                int result = StringUtils.defaultString(m1.getGroupId()).compareTo(StringUtils.defaultString(m2.getGroupId()));
+                return result != 0 ? result : StringUtils.defaultString(m1.getId()).compareTo(StringUtils.defaultString(m2.getId()));
+            }
+        });
+
+        private final Comparator<Module> comparator;
+
+        SortOrder(Comparator<Module> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    /**
+     * A page of the forge catalog.
+     */
+    public static class ForgeCatalogPageDto {
+
+        private long catalogVersion;
+        private long catalogTimestamp;
+        private int total;
+        private int offset;
+        private int limit;
+        private List<Module> modules;
+
+        public ForgeCatalogPageDto(ForgeCatalog catalog, int total, int offset, int limit, List<Module> modules) {
+            this.catalogVersion = catalog.getVersion();
+            this.catalogTimestamp = catalog.getTimestamp();
+            this.total = total;
+            this.offset = offset;
+            this.limit = limit;
+            this.modules = modules;
+        }
+
+        /**
+         * @return the version of the catalog snapshot this page was computed from
+         */
+        public long getCatalogVersion() {
+            return catalogVersion;
+        }
+
+        /**
+         * @return the time the catalog snapshot was loaded from the forges
+         */
+        public long getCatalogTimestamp() {
+            return catalogTimestamp;
+        }
+
+        /**
+         * @return the number of modules matching the query and filters, across all pages
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the position of the first module of this page
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the maximum number of modules of this page
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return the modules of this page
+         */
+        public List<Module> getModules() {
+            return modules;
+        }
+    }
+
+    /**
+     * Returns a page of the forge catalog.
+     *
+     * @param q optional search terms, matched against the module id, title and group id
+     * @param forgeId optional id of the forge the modules must come from
+     * @param groupId optional group id the modules must have
+     * @param sort the sort order, one of <code>relevance</code>, <code>id</code>, <code>name</code> or <code>groupId</code>
+     * @param order <code>asc</code> or <code>desc</code>
+     * @param offset the position of the first module to return
+     * @param limit the maximum number of modules to return
+     * @param request the current request, used to evaluate its preconditions
+     * @return the requested page, or a <code>304 Not Modified</code> response if the client already has it
+     */
+    @GET
+    @Path("/modules")
+    public Response getModules(@QueryParam("q") String q, @QueryParam("forgeId") String forgeId,
+            @QueryParam("groupId") String groupId, @QueryParam("sort") @DefaultValue("relevance") String sort,
+            @QueryParam("order") @DefaultValue("asc") String order, @QueryParam("offset") @DefaultValue("0") int offset,
+            @QueryParam("limit") @DefaultValue("" + DEFAULT_LIMIT) int limit, @Context Request request) {
+
+        SortOrder sortOrder = getSortOrder(sort);
+        boolean descending = isDescending(order);
+        if (offset < 0 || limit < 0) {
+            throw new ClientErrorException("offset and limit must not be negative", Status.BAD_REQUEST);
+        }
+        limit = Math.min(limit, MAX_LIMIT);
+
+        ForgeService forgeService = getForgeService();
+        forgeService.loadModules();
+        // the page and its entity tag must come from the same snapshot, even if the catalog is refreshed meanwhile
+        ForgeCatalog catalog;
+        List<Module> modules;
+        if (StringUtils.isNotBlank(q)) {
+            ForgeSearchResult searchResult = forgeService.searchModules(q, 0, Integer.MAX_VALUE);
+            catalog = searchResult.getCatalog() != null ? searchResult.getCatalog() : forgeService.getCatalog();
+            modules = searchResult.getModules();
+        } else {
+            catalog = forgeService.getCatalog();
+            modules = catalog.getModules();
+        }
+
+        EntityTag etag = getEntityTag(catalog);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        if (StringUtils.isNotEmpty(forgeId) || StringUtils.isNotEmpty(groupId)) {
+            List<Module> filtered = new ArrayList<Module>();
+            for (Module module : modules) {
+                if ((StringUtils.isEmpty(forgeId) || forgeId.equals(module.getForgeId()))
+                        && (StringUtils.isEmpty(groupId) || groupId.equals(module.getGroupId()))) {
+                    filtered.add(module);
+                }
+            }
+            modules = filtered;
+        }
+        if (sortOrder.comparator != null || descending) {
+            modules = new ArrayList<Module>(modules);
+            if (sortOrder.comparator != null) {
+                Collections.sort(modules, sortOrder.comparator);
+            }
+            if (descending) {
+                Collections.reverse(modules);
+            }
+        }
+
+        int from = Math.min(offset, modules.size());
+        int to = Math.min(from + limit, modules.size());
+        ForgeCatalogPageDto page = new ForgeCatalogPageDto(catalog, modules.size(), offset, limit,
+                new ArrayList<Module>(modules.subList(from, to)));
+        return Response.ok(page).tag(etag).build();
+    }
+
+    /**
+     * Returns a single module of the forge catalog, with all its versions compatible with this platform.
+     *
+     * @param groupId the group id of the module
+     * @param id the id of the module
+     * @param request the current request, used to evaluate its preconditions
+     * @return the module, or a <code>304 Not Modified</code> response if the client already has it
+     */
+    @GET
+    @Path("/modules/{groupId}/{id}")
+    public Response getModule(@PathParam("groupId") String groupId, @PathParam("id") String id, @Context Request request) {
+
+        ForgeService forgeService = getForgeService();
+        forgeService.loadModules();
+        ForgeCatalog catalog = forgeService.getCatalog();
+
+        EntityTag etag = getEntityTag(catalog);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        Module module = catalog.findModule(id, groupId);
+        if (module == null) {
+            throw new NotFoundException("Unable to find the module " + groupId + ":" + id + " in the forge catalog");
+        }
+        return Response.ok(module).tag(etag).build();
+    }
+
+    /**
+     * Returns the icon of a module of the forge catalog. Icons are fetched from the forge once and then served from
+     * the cache of the module manager, so that browsers do not contact the forges when rendering the catalog.
+     *
+     * @param groupId the group id of the module
+     * @param id the id of the module
+     * @param request the current request, used to evaluate its preconditions
+     * @return the icon, or a <code>304 Not Modified</code> response if the client already has it
+     */
+    @GET
+    @Path("/modules/{groupId}/{id}/icon")
+    @Produces({ MediaType.WILDCARD })
+    public Response getModuleIcon(@PathParam("groupId") String groupId, @PathParam("id") String id, @Context Request request) {
+
+        ForgeIcon icon = getForgeService().getModuleIcon(groupId, id);
+        if (icon == null) {
+            throw new NotFoundException("No icon available for the module " + groupId + ":" + id);
+        }
+
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setMaxAge(ICON_MAX_AGE);
+        EntityTag etag = new EntityTag(icon.getEtag());
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+        // the icon comes from a forge, never let the browser interpret it as anything but an image
+        return Response.ok(icon.getData(), icon.getContentType()).tag(etag).cacheControl(cacheControl)
+                .header("X-Content-Type-Options", "nosniff")
+                .header("Content-Security-Policy", "default-src 'none'; sandbox").build();
+    }
+
+    private static EntityTag getEntityTag(ForgeCatalog catalog) {
+        // the version alone restarts on each server start, the timestamp makes it unique
+        return new EntityTag(Long.toString(catalog.getTimestamp(), 36) + "-" + catalog.getVersion());
+    }
+
+    private static SortOrder getSortOrder(String sort) {
+        try {
+            return SortOrder.valueOf(sort.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ClientErrorException("Unsupported sort order: " + sort, Status.BAD_REQUEST, e);
+        }
+    }
+
+    private static boolean isDescending(String order) {
+        if ("desc".equalsIgnoreCase(order)) {
+            return true;
+        }
+        if (!"asc".equalsIgnoreCase(order)) {
+            throw new ClientErrorException("Unsupported order: " + order, Status.BAD_REQUEST);
+        }
+        return false;
+    }
+
+    private static ForgeService getForgeService() {
+        ForgeService forgeService = (ForgeService) SpringContextSingleton.getBeanInModulesContext("forgeService");
+        if (forgeService == null) {
+            throw new ServerErrorException("Forge service is not available", Status.SERVICE_UNAVAILABLE);
+        }
+        return forgeService;
+    }
+}
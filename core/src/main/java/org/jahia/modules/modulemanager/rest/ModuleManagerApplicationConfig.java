@@ -64,6 +64,7 @@ public class ModuleManagerApplicationConfig extends ResourceConfig {
         super(
                 MultiPartFeature.class,
                 ModuleManagerResource.class,
+                ForgeCatalogResource.class,
                 JacksonJaxbJsonProvider.class,
                 ModuleManagerExceptionMapper.class,
                 ModuleManagerAuthenticationRequestFilter.class,
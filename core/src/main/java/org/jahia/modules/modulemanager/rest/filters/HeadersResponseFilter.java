@@ -64,8 +64,10 @@ public class HeadersResponseFilter implements ContainerResponseFilter {
 
         final MultivaluedMap<String, Object> headers = responseContext.getHeaders();
 
-        // Tell the client to not cache the response.
-        headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
-        headers.add("Pragma", "no-cache");
+        // Tell the client to not cache the response, unless the resource allowed it explicitly.
+        if (!headers.containsKey(HttpHeaders.CACHE_CONTROL)) {
+            headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
+            headers.add("Pragma", "no-cache");
+        }
     }
 }
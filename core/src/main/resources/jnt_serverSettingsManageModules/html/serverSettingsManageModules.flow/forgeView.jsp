@@ -136,7 +136,8 @@
         <tbody>
         <c:forEach items="${requestScope.modules}" var="module">
             <tr>
-                <td ><c:if test="${not empty module.icon}"><img style="width:32px; height:32px;padding-right:5px;"  src="${module.icon}"/></c:if>${module.name}</td>
+                <c:url value="/modules/api/bundles/_forge/modules/${module.groupId}/${module.id}/icon" var="iconUrl"><c:param name="v" value="${module.version}"/></c:url>
+                <td ><c:if test="${not empty module.icon}"><img style="width:32px; height:32px;padding-right:5px;"  src="${iconUrl}"/></c:if>${module.name}</td>
                 <td> ${module.id}</td>
                 <td> ${module.groupId}</td>
                 <td> ${module.version}</td>
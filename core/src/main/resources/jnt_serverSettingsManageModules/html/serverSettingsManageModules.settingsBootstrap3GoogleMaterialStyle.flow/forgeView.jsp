@@ -197,11 +197,12 @@
             <tbody>
             <c:forEach items="${requestScope.modules}" var="module">
                 <c:url value="${module.remoteUrl}" context="/" var="remoteUrl"/>
+                <c:url value="/modules/api/bundles/_forge/modules/${module.groupId}/${module.id}/icon" var="iconUrl"><c:param name="v" value="${module.version}"/></c:url>
                 <tr onclick="$('#modalframe').attr('src', '${remoteUrl}')">
                     <td>
                             <input type="hidden" name="remoteUrl" value="${remoteUrl}"/>
                             <c:if test="${not empty module.icon}">
-                                <img style="width:32px; height:32px;margin-right: 5px" src="${module.icon}"/>
+                                <img style="width:32px; height:32px;margin-right: 5px" src="${iconUrl}"/>
                             </c:if>
                             <span>
                                 <b>${module.name}</b>&nbsp;(${module.id})
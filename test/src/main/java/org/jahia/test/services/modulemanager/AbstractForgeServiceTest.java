@@ -0,0 +1,118 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.test.services.modulemanager;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.apache.commons.io.FileUtils;
+import org.jahia.modules.modulemanager.forge.Forge;
+import org.jahia.modules.modulemanager.forge.ForgeService;
+import org.jahia.services.SpringContextSingleton;
+import org.jahia.services.notification.HttpClientService;
+import org.jahia.test.JahiaTestCase;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base class of the tests running a forge service of their own, cached in a temporary directory, against forges served
+ * by a {@link ForgeTestServer} instead of the configured ones.
+ */
+public abstract class AbstractForgeServiceTest extends JahiaTestCase {
+
+    protected ForgeTestServer server;
+    protected ForgeService forgeService;
+    private File cacheDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ForgeTestServer();
+        cacheDirectory = Files.createTempDirectory("forge-service-test").toFile();
+        forgeService = new ForgeService();
+        forgeService.setHttpClientService((HttpClientService) SpringContextSingleton.getBean("HttpClientService"));
+        // no background refresh, each load contacts the forges
+        forgeService.setLoadModulesDelay(0);
+        forgeService.setCacheDirectory(cacheDirectory.getPath());
+        forgeService.setSegmentedDownloadThreshold(0);
+        configure(forgeService);
+        forgeService.start();
+        // the forges configured on the server are not removed from the repository, only from this service
+        for (Forge forge : new ArrayList<>(forgeService.getForges())) {
+            forgeService.removeForge(forge);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        forgeService.destroy();
+        server.stop();
+        FileUtils.deleteQuietly(cacheDirectory);
+    }
+
+    /**
+     * Sets up the forge service before it is started.
+     */
+    protected void configure(ForgeService forgeService) {
+    }
+
+    /**
+     * Adds a forge served under the given path of the test server.
+     */
+    protected Forge addForge(String id, String path) {
+        Forge forge = new Forge();
+        forge.setId(id);
+        forge.setUrl(server.getUrl(path));
+        forgeService.addForge(forge);
+        return forge;
+    }
+
+    /**
+     * Reloads the catalog from the forges.
+     */
+    protected void reloadCatalog() {
+        forgeService.flushModules();
+        forgeService.loadModules();
+    }
+}
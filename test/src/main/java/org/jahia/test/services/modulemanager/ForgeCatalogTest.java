@@ -0,0 +1,164 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.test.services.modulemanager;
+
+import static org.jahia.test.services.modulemanager.ForgeTestServer.COMPATIBLE_PLATFORM;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.INCOMPATIBLE_PLATFORM;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.module;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.version;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.jahia.modules.modulemanager.forge.ForgeModuleVersion;
+import org.jahia.modules.modulemanager.forge.Module;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests the catalog built from the module lists of the forges, which has to match the one built by the former
+ * <code>org.json</code> based loading.
+ */
+public class ForgeCatalogTest extends AbstractForgeServiceTest {
+
+    private static final String GROUP_ID = "org.jahia.test.forge";
+
+    @Test
+    public void shouldKeepOnlyVersionsCompatibleWithThePlatform() throws Exception {
+        addForge("forge", "/forge");
+        server.setCatalog("/forge",
+                module("mixed", GROUP_ID,
+                        version("1.0.0", COMPATIBLE_PLATFORM, "http://forge/mixed-1.0.0.jar", null),
+                        version("2.0.0", INCOMPATIBLE_PLATFORM, "http://forge/mixed-2.0.0.jar", null),
+                        version("1.5.0", COMPATIBLE_PLATFORM, "http://forge/mixed-1.5.0.jar", "sha256:1234")),
+                module("incompatible", GROUP_ID,
+                        version("1.0.0", INCOMPATIBLE_PLATFORM, "http://forge/incompatible-1.0.0.jar", null)));
+        reloadCatalog();
+
+        Module module = forgeService.findModule("mixed", GROUP_ID);
+        assertNotNull(module);
+        assertEquals("mixed title", module.getName());
+        assertEquals("http://forge/mixed.html", module.getRemoteUrl());
+        assertEquals("/mixed", module.getRemotePath());
+        assertNull(module.getIcon());
+        assertEquals("forge", module.getForgeId());
+        // the newest compatible version is the one installed
+        assertEquals("1.5.0", module.getVersion());
+        assertEquals("http://forge/mixed-1.5.0.jar", module.getDownloadUrl());
+        assertEquals("sha256:1234", module.getChecksum());
+        List<ForgeModuleVersion> versions = module.getVersions();
+        assertEquals(2, versions.size());
+        assertEquals("1.0.0", versions.get(0).getVersion());
+        assertEquals("1.5.0", versions.get(1).getVersion());
+
+        assertNull(forgeService.findModule("incompatible", GROUP_ID));
+        assertEquals(1, forgeService.getModules().size());
+    }
+
+    @Test
+    public void shouldKeepLastEntryOfDuplicateVersion() throws Exception {
+        addForge("forge", "/forge");
+        server.setCatalog("/forge",
+                module("duplicate", GROUP_ID,
+                        version("1.0.0", COMPATIBLE_PLATFORM, "http://forge/first.jar", "sha256:first"),
+                        version("0.9.0", COMPATIBLE_PLATFORM, "http://forge/older.jar", null),
+                        version("1.0.0", COMPATIBLE_PLATFORM, "http://forge/last.jar", null)));
+        reloadCatalog();
+
+        Module module = forgeService.findModule("duplicate", GROUP_ID);
+        assertNotNull(module);
+        assertEquals("1.0.0", module.getVersion());
+        assertEquals("http://forge/last.jar", module.getDownloadUrl());
+        assertNull(module.getChecksum());
+        assertEquals(2, module.getVersions().size());
+        assertEquals("http://forge/last.jar", module.findVersion("1.0.0").getDownloadUrl());
+        assertEquals("http://forge/older.jar", module.findVersion("0.9.0").getDownloadUrl());
+    }
+
+    @Test
+    public void shouldTakeModulesFromFirstForgeDeclaringThem() throws Exception {
+        addForge("first", "/first");
+        addForge("second", "/second");
+        server.setCatalog("/first",
+                module("shared", GROUP_ID, version("1.0.0", COMPATIBLE_PLATFORM, "http://first/shared-1.0.0.jar", null)),
+                module("shared", GROUP_ID, version("3.0.0", COMPATIBLE_PLATFORM, "http://first/shared-3.0.0.jar", null)),
+                module("incompatible", GROUP_ID, version("1.0.0", INCOMPATIBLE_PLATFORM, "http://first/incompatible-1.0.0.jar", null)));
+        server.setCatalog("/second",
+                module("shared", GROUP_ID, version("2.0.0", COMPATIBLE_PLATFORM, "http://second/shared-2.0.0.jar", null)),
+                module("shared", "org.jahia.test.other", version("2.0.0", COMPATIBLE_PLATFORM, "http://second/other-2.0.0.jar", null)),
+                module("incompatible", GROUP_ID, version("1.0.0", COMPATIBLE_PLATFORM, "http://second/incompatible-1.0.0.jar", null)));
+        reloadCatalog();
+
+        // the first forge wins, and so does the first entry of a module listed twice by the same forge
+        Module shared = forgeService.findModule("shared", GROUP_ID);
+        assertEquals("first", shared.getForgeId());
+        assertEquals("1.0.0", shared.getVersion());
+        assertEquals(1, shared.getVersions().size());
+        // modules are identified by their group too
+        assertEquals("second", forgeService.findModule("shared", "org.jahia.test.other").getForgeId());
+        // a module without any compatible version on the first forge is taken from the next one
+        Module incompatible = forgeService.findModule("incompatible", GROUP_ID);
+        assertEquals("second", incompatible.getForgeId());
+        assertEquals("http://second/incompatible-1.0.0.jar", incompatible.getDownloadUrl());
+        assertEquals(3, forgeService.getModules().size());
+    }
+
+    @Test
+    public void shouldKeepLastGoodModulesOfInvalidCatalog() throws Exception {
+        addForge("forge", "/forge");
+        server.setCatalog("/forge", module("valid", GROUP_ID, version("1.0.0", COMPATIBLE_PLATFORM, "http://forge/valid-1.0.0.jar", null)));
+        reloadCatalog();
+        assertNotNull(forgeService.findModule("valid", GROUP_ID));
+
+        // a version without download URL makes the whole catalog invalid
+        JSONObject invalidVersion = version("1.0.0", COMPATIBLE_PLATFORM, "http://forge/invalid-1.0.0.jar", null);
+        invalidVersion.remove("downloadUrl");
+        server.setCatalog("/forge", module("invalid", GROUP_ID, invalidVersion));
+        reloadCatalog();
+        assertNotNull(forgeService.findModule("valid", GROUP_ID));
+        assertNull(forgeService.findModule("invalid", GROUP_ID));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.test.services.modulemanager;
+
+import static org.jahia.test.services.modulemanager.ForgeTestServer.COMPATIBLE_PLATFORM;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.module;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.version;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.jahia.modules.modulemanager.forge.ForgeService;
+import org.junit.Test;
+
+/**
+ * Tests the download of module artifacts from a forge: resuming an interrupted download, the forge answers to the
+ * resumed request and the checksum verification.
+ */
+public class ForgeDownloadTest extends AbstractForgeServiceTest {
+
+    private static final String ARTIFACT_PATH = "/forge/files/module-1.0.0.jar";
+    private static final int ARTIFACT_SIZE = 100000;
+    private static final int INTERRUPTED_AT = 40000;
+
+    private byte[] artifact;
+
+    @Override
+    protected void configure(ForgeService forgeService) {
+        forgeService.setArtifactCacheMaxSize(10 * ARTIFACT_SIZE);
+        forgeService.setDownloadAttempts(3);
+    }
+
+    @Test
+    public void shouldResumeInterruptedDownload() throws Exception {
+        publishArtifact(true);
+        server.truncateNextResponse(ARTIFACT_PATH, INTERRUPTED_AT);
+
+        verifyDownloaded();
+        assertEquals(Arrays.asList("GET", "GET bytes=" + INTERRUPTED_AT + "-"), server.getRequests(ARTIFACT_PATH));
+    }
+
+    @Test
+    public void shouldRestartDownloadWhenRangeIsIgnored() throws Exception {
+        publishArtifact(true);
+        server.truncateNextResponse(ARTIFACT_PATH, INTERRUPTED_AT);
+        // the whole artifact is sent again, it must replace the partial content instead of being appended to it
+        server.setRangeMode(ForgeTestServer.RangeMode.IGNORE);
+
+        verifyDownloaded();
+        assertEquals(Arrays.asList("GET", "GET bytes=" + INTERRUPTED_AT + "-"), server.getRequests(ARTIFACT_PATH));
+    }
+
+    @Test
+    public void shouldAcceptCompletePartialFileWhenRangeIsNotSatisfiable() throws Exception {
+        publishArtifact(true);
+        // all the bytes are received but the connection is closed before the announced length
+        server.truncateNextResponse(ARTIFACT_PATH, ARTIFACT_SIZE);
+        server.setRangeMode(ForgeTestServer.RangeMode.UNSATISFIABLE);
+
+        verifyDownloaded();
+        assertEquals(Arrays.asList("GET", "GET bytes=" + ARTIFACT_SIZE + "-"), server.getRequests(ARTIFACT_PATH));
+    }
+
+    @Test
+    public void shouldRestartDownloadWhenRangeOfShorterPartialFileIsNotSatisfiable() throws Exception {
+        publishArtifact(true);
+        server.truncateNextResponse(ARTIFACT_PATH, INTERRUPTED_AT);
+        // the artifact is longer than the partial file, which is stale and discarded
+        server.setRangeMode(ForgeTestServer.RangeMode.UNSATISFIABLE);
+
+        verifyDownloaded();
+        assertEquals(Arrays.asList("GET", "GET bytes=" + INTERRUPTED_AT + "-", "GET"), server.getRequests(ARTIFACT_PATH));
+    }
+
+    @Test
+    public void shouldRejectArtifactNotMatchingChecksum() throws Exception {
+        publishArtifact(false);
+        server.truncateNextResponse(ARTIFACT_PATH, INTERRUPTED_AT);
+
+        assertNull(download());
+        // the partial content cannot be trusted, the next download starts from the first byte
+        assertNull(download());
+        assertEquals(Arrays.asList("GET", "GET bytes=" + INTERRUPTED_AT + "-", "GET"), server.getRequests(ARTIFACT_PATH));
+    }
+
+    @Test
+    public void shouldServeDownloadedArtifactFromCache() throws Exception {
+        publishArtifact(true);
+
+        verifyDownloaded();
+        verifyDownloaded();
+        assertEquals(Arrays.asList("GET"), server.getRequests(ARTIFACT_PATH));
+    }
+
+    /**
+     * Serves the artifact and publishes it in the catalog of the forge, with the checksum of its content or of another
+     * content.
+     */
+    private void publishArtifact(boolean validChecksum) throws Exception {
+        artifact = new byte[ARTIFACT_SIZE];
+        new Random(ARTIFACT_SIZE).nextBytes(artifact);
+        server.setResource(ARTIFACT_PATH, artifact);
+        String checksum = DigestUtils.sha256Hex(validChecksum ? artifact : Arrays.copyOf(artifact, ARTIFACT_SIZE - 1));
+        addForge("forge", "/forge");
+        server.setCatalog("/forge", module("module", "org.jahia.test.forge",
+                version("1.0.0", COMPATIBLE_PLATFORM, server.getUrl(ARTIFACT_PATH), "sha256:" + checksum)));
+        reloadCatalog();
+    }
+
+    private File download() {
+        return forgeService.downloadModuleFromForge("forge", server.getUrl(ARTIFACT_PATH));
+    }
+
+    private void verifyDownloaded() throws IOException {
+        File downloaded = download();
+        assertNotNull(downloaded);
+        try {
+            assertArrayEquals(artifact, FileUtils.readFileToByteArray(downloaded));
+        } finally {
+            FileUtils.deleteQuietly(downloaded);
+        }
+    }
+}
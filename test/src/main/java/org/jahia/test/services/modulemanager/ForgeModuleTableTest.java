@@ -0,0 +1,194 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.test.services.modulemanager;
+
+import static org.jahia.test.services.modulemanager.ForgeTestServer.COMPATIBLE_PLATFORM;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.module;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.version;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.jahia.modules.modulemanager.forge.ForgeModuleVersion;
+import org.jahia.modules.modulemanager.forge.Module;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests the modules of the catalog, which are read from compact tables rather than stored as plain modules.
+ */
+public class ForgeModuleTableTest extends AbstractForgeServiceTest {
+
+    private static final String GROUP_ID = "org.jahia.test.forge";
+
+    @Test
+    public void shouldKeepNullFields() throws Exception {
+        publishCatalog();
+
+        Module bare = forgeService.findModule("bare", GROUP_ID);
+        // catalog modules are views of the table the catalog is stored into
+        assertTrue(bare.getClass() != Module.class);
+        assertNull(bare.getIcon());
+        assertNull(bare.getChecksum());
+        assertNull(bare.getVersions().get(0).getChecksum());
+        Module full = forgeService.findModule("full", GROUP_ID);
+        assertEquals("http://forge/full.png", full.getIcon());
+        assertEquals("sha256:full-2", full.getChecksum());
+        assertEquals("", full.getVersions().get(0).getChecksum());
+        assertEquals("sha256:full-2", full.getVersions().get(1).getChecksum());
+    }
+
+    @Test
+    public void shouldFindVersionsByDownloadUrlOfSameHash() throws Exception {
+        String aa = server.getUrl("/forge/files/Aa.jar");
+        String bb = server.getUrl("/forge/files/BB.jar");
+        String cs = server.getUrl("/forge/files/C#.jar");
+        assertEquals(aa.hashCode(), bb.hashCode());
+        assertEquals(aa.hashCode(), cs.hashCode());
+        byte[] aaContent = "Aa".getBytes("UTF-8");
+        byte[] bbContent = "BB".getBytes("UTF-8");
+        server.setResource("/forge/files/Aa.jar", aaContent);
+        server.setResource("/forge/files/BB.jar", bbContent);
+        addForge("forge", "/forge");
+        server.setCatalog("/forge",
+                module("aa", GROUP_ID, version("1.0.0", COMPATIBLE_PLATFORM, aa, "sha256:" + DigestUtils.sha256Hex(aaContent))),
+                module("bb", GROUP_ID, version("1.0.0", COMPATIBLE_PLATFORM, bb, "sha256:" + DigestUtils.sha256Hex(bbContent))));
+        reloadCatalog();
+
+        assertEquals(aa, forgeService.getCatalog().findVersionByDownloadUrl(aa).getDownloadUrl());
+        assertEquals(bb, forgeService.getCatalog().findVersionByDownloadUrl(bb).getDownloadUrl());
+        assertNull(forgeService.getCatalog().findVersionByDownloadUrl(cs));
+        // the downloads are verified against the checksum of their own version
+        for (String url : new String[] {aa, bb}) {
+            File downloaded = forgeService.downloadModuleFromForge("forge", url);
+            assertNotNull(url, downloaded);
+            try {
+                assertArrayEquals(url.equals(aa) ? aaContent : bbContent, FileUtils.readFileToByteArray(downloaded));
+            } finally {
+                FileUtils.deleteQuietly(downloaded);
+            }
+        }
+    }
+
+    @Test
+    public void shouldSerializeModules() throws Exception {
+        publishCatalog();
+        List<Module> modules = forgeService.getModules();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(modules));
+        }
+        @SuppressWarnings("unchecked")
+        List<Module> deserialized = (List<Module>) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(modules.size(), deserialized.size());
+        for (int i = 0; i < modules.size(); i++) {
+            assertSameModule(modules.get(i), deserialized.get(i));
+        }
+    }
+
+    @Test
+    public void shouldSerializeModulesToJson() throws Exception {
+        publishCatalog();
+        ObjectMapper mapper = new ObjectMapper();
+
+        for (Module module : forgeService.getModules()) {
+            String json = mapper.writeValueAsString(module);
+            Module deserialized = mapper.readValue(json, Module.class);
+            assertSameModule(module, deserialized);
+            // the plain module is serialized the same way as the catalog one
+            assertEquals(json, mapper.writeValueAsString(deserialized));
+        }
+    }
+
+    private void publishCatalog() throws Exception {
+        addForge("forge", "/forge");
+        JSONObject bare = module("bare", GROUP_ID, version("1.0.0", COMPATIBLE_PLATFORM, "http://forge/bare-1.0.0.jar", null));
+        bare.remove("icon");
+        JSONObject full = module("full", GROUP_ID,
+                version("1.0.0", COMPATIBLE_PLATFORM, "http://forge/full-1.0.0.jar", ""),
+                version("2.0.0", COMPATIBLE_PLATFORM, "http://forge/full-2.0.0.jar", "sha256:full-2"));
+        full.put("icon", "http://forge/full.png");
+        server.setCatalog("/forge", bare, full);
+        reloadCatalog();
+        assertEquals(2, forgeService.getModules().size());
+    }
+
+    private static void assertSameModule(Module expected, Module actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getGroupId(), actual.getGroupId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getDownloadUrl(), actual.getDownloadUrl());
+        assertEquals(expected.getRemoteUrl(), actual.getRemoteUrl());
+        assertEquals(expected.getRemotePath(), actual.getRemotePath());
+        assertEquals(expected.getForgeId(), actual.getForgeId());
+        assertEquals(expected.getIcon(), actual.getIcon());
+        assertEquals(expected.getChecksum(), actual.getChecksum());
+        assertEquals(expected.isInstallable(), actual.isInstallable());
+        assertEquals(expected.getVersions().size(), actual.getVersions().size());
+        for (int i = 0; i < expected.getVersions().size(); i++) {
+            ForgeModuleVersion expectedVersion = expected.getVersions().get(i);
+            ForgeModuleVersion actualVersion = actual.getVersions().get(i);
+            assertEquals(expectedVersion.getVersion(), actualVersion.getVersion());
+            assertEquals(expectedVersion.getRequiredVersion(), actualVersion.getRequiredVersion());
+            assertEquals(expectedVersion.getDownloadUrl(), actualVersion.getDownloadUrl());
+            assertEquals(expectedVersion.getChecksum(), actualVersion.getChecksum());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.test.services.modulemanager;
+
+import static org.jahia.test.services.modulemanager.ForgeTestServer.COMPATIBLE_PLATFORM;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.module;
+import static org.jahia.test.services.modulemanager.ForgeTestServer.version;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.jahia.modules.modulemanager.forge.ForgeService;
+import org.junit.Test;
+
+/**
+ * Tests the download of large module artifacts as parallel range segments.
+ */
+public class ForgeSegmentedDownloadTest extends AbstractForgeServiceTest {
+
+    private static final String ARTIFACT_PATH = "/forge/files/module-1.0.0.jar";
+    private static final int ARTIFACT_SIZE = 100000;
+    private static final List<String> SEGMENT_REQUESTS = Arrays.asList("GET bytes=0-33333", "GET bytes=33334-66667", "GET bytes=66668-99999");
+
+    private byte[] artifact;
+
+    @Override
+    protected void configure(ForgeService forgeService) {
+        forgeService.setArtifactCacheMaxSize(10 * ARTIFACT_SIZE);
+        forgeService.setDownloadAttempts(3);
+        forgeService.setSegmentedDownloadThreshold(ARTIFACT_SIZE / 2);
+        forgeService.setDownloadSegments(3);
+    }
+
+    @Test
+    public void shouldDownloadLargeArtifactInSegments() throws Exception {
+        publishArtifact();
+
+        verifyDownloaded();
+        List<String> requests = server.getRequests(ARTIFACT_PATH);
+        assertEquals("HEAD", requests.get(0));
+        assertEquals(SEGMENT_REQUESTS, sort(requests.subList(1, requests.size())));
+    }
+
+    @Test
+    public void shouldResumeInterruptedSegment() throws Exception {
+        publishArtifact();
+        server.truncateNextResponse(ARTIFACT_PATH, 1000);
+
+        verifyDownloaded();
+        // the interrupted segment is requested again from the first byte it did not receive
+        assertEquals(5, server.getRequests(ARTIFACT_PATH).size());
+    }
+
+    @Test
+    public void shouldFallBackToSingleStreamWhenRangesAreIgnored() throws Exception {
+        publishArtifact();
+        server.setRangeMode(ForgeTestServer.RangeMode.IGNORE);
+
+        verifyDownloaded();
+        List<String> requests = server.getRequests(ARTIFACT_PATH);
+        assertEquals("GET", requests.get(requests.size() - 1));
+    }
+
+    @Test
+    public void shouldStartOverAfterFailedSegment() throws Exception {
+        publishArtifact();
+        // enough interruptions for every attempt of every segment
+        server.truncateNextResponses(ARTIFACT_PATH, 1000, 9);
+        assertNull(download());
+        server.truncateNextResponses(ARTIFACT_PATH, 0, 0);
+        int failedRequests = server.getRequests(ARTIFACT_PATH).size();
+
+        // nothing of the failed download is left to resume from, the preallocated segments would look complete
+        verifyDownloaded();
+        List<String> requests = server.getRequests(ARTIFACT_PATH);
+        requests = requests.subList(failedRequests, requests.size());
+        assertEquals("HEAD", requests.get(0));
+        assertEquals(SEGMENT_REQUESTS, sort(requests.subList(1, requests.size())));
+    }
+
+    private void publishArtifact() throws Exception {
+        artifact = new byte[ARTIFACT_SIZE];
+        new Random(ARTIFACT_SIZE).nextBytes(artifact);
+        server.setResource(ARTIFACT_PATH, artifact);
+        addForge("forge", "/forge");
+        server.setCatalog("/forge", module("module", "org.jahia.test.forge",
+                version("1.0.0", COMPATIBLE_PLATFORM, server.getUrl(ARTIFACT_PATH), "sha256:" + DigestUtils.sha256Hex(artifact))));
+        reloadCatalog();
+    }
+
+    private File download() {
+        return forgeService.downloadModuleFromForge("forge", server.getUrl(ARTIFACT_PATH));
+    }
+
+    private void verifyDownloaded() throws IOException {
+        File downloaded = download();
+        assertNotNull(downloaded);
+        try {
+            assertArrayEquals(artifact, FileUtils.readFileToByteArray(downloaded));
+        } finally {
+            FileUtils.deleteQuietly(downloaded);
+        }
+    }
+
+    private static List<String> sort(List<String> requests) {
+        List<String> sorted = new ArrayList<>(requests);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.test.services.modulemanager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Minimal HTTP server standing for a forge in the tests: it serves catalogs and artifacts, answers range requests the
+ * way it is told to and records the requests it receives.
+ */
+public class ForgeTestServer {
+
+    /**
+     * How the server answers a request for a range of an artifact.
+     */
+    public enum RangeMode {
+        /** sends the requested range */
+        HONOUR,
+        /** ignores the range and sends the whole artifact */
+        IGNORE,
+        /** answers that the range cannot be satisfied */
+        UNSATISFIABLE
+    }
+
+    public static final String COMPATIBLE_PLATFORM = "version-7.0.0.0";
+    public static final String INCOMPATIBLE_PLATFORM = "version-999.0.0.0";
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    private final Map<String, int[]> truncatedResources = new HashMap<>();
+    private final List<String> requests = new ArrayList<>();
+    private volatile RangeMode rangeMode = RangeMode.HONOUR;
+
+    public ForgeTestServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    executor.execute(() -> handle(socket));
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the URL of the given path on this server
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    public void setResource(String path, byte[] content) {
+        resources.put(path, content);
+    }
+
+    public void setResource(String path, String content) {
+        setResource(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Serves the given modules as the catalog of the forge under the given path.
+     */
+    public void setCatalog(String path, JSONObject... modules) throws Exception {
+        JSONArray moduleList = new JSONArray();
+        for (JSONObject module : modules) {
+            moduleList.put(module);
+        }
+        setResource(path + "/contents/modules-repository.moduleList.json",
+                new JSONArray().put(new JSONObject().put("modules", moduleList)).toString());
+    }
+
+    public static JSONObject module(String id, String groupId, JSONObject... versions) throws Exception {
+        JSONObject module = new JSONObject().put("name", id).put("title", id + " title").put("groupId", groupId)
+                .put("remoteUrl", "http://forge/" + id + ".html").put("path", "/" + id);
+        JSONArray moduleVersions = new JSONArray();
+        for (JSONObject version : versions) {
+            moduleVersions.put(version);
+        }
+        return module.put("versions", moduleVersions);
+    }
+
+    public static JSONObject version(String version, String requiredVersion, String downloadUrl, String checksum) throws Exception {
+        JSONObject moduleVersion = new JSONObject().put("version", version).put("requiredVersion", requiredVersion)
+                .put("downloadUrl", downloadUrl);
+        return checksum != null ? moduleVersion.put("checksum", checksum) : moduleVersion;
+    }
+
+    /**
+     * Makes the next response for the given path close the connection once the given number of bytes of its body have
+     * been sent, before the length it announced.
+     */
+    public void truncateNextResponse(String path, int length) {
+        truncateNextResponses(path, length, 1);
+    }
+
+    /**
+     * Makes the given number of next responses for the given path close the connection once the given number of bytes
+     * of their body have been sent, a count of 0 serving the whole body again.
+     */
+    public void truncateNextResponses(String path, int length, int count) {
+        synchronized (truncatedResources) {
+            if (count > 0) {
+                truncatedResources.put(path, new int[] {length, count});
+            } else {
+                truncatedResources.remove(path);
+            }
+        }
+    }
+
+    public void setRangeMode(RangeMode rangeMode) {
+        this.rangeMode = rangeMode;
+    }
+
+    /**
+     * @return the requests received for the given path, as their method followed by their Range header, if any
+     */
+    public List<String> getRequests(String path) {
+        List<String> pathRequests = new ArrayList<>();
+        synchronized (requests) {
+            for (String request : requests) {
+                if (StringUtils.substringBefore(request, " ").equals(path)) {
+                    pathRequests.add(StringUtils.substringAfter(request, " "));
+                }
+            }
+        }
+        return pathRequests;
+    }
+
+    public void stop() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (String line = in.readLine(); StringUtils.isNotEmpty(line); line = in.readLine()) {
+                headers.put(StringUtils.substringBefore(line, ":").trim().toLowerCase(), StringUtils.substringAfter(line, ":").trim());
+            }
+            String method = StringUtils.substringBefore(requestLine, " ");
+            String path = StringUtils.substringBefore(StringUtils.substringBetween(requestLine, " ", " "), "?");
+            String range = headers.get("range");
+            synchronized (requests) {
+                requests.add(path + " " + method + (range != null ? " " + range : ""));
+            }
+            respond(s.getOutputStream(), method, path, range);
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private void respond(OutputStream out, String method, String path, String range) throws IOException {
+        byte[] content = resources.get(path);
+        if (content == null) {
+            writeHead(out, "404 Not Found", 0, null);
+            return;
+        }
+        int start = 0;
+        int end = content.length - 1;
+        String contentRange = null;
+        String status = "200 OK";
+        if (range != null && rangeMode != RangeMode.IGNORE) {
+            if (rangeMode == RangeMode.UNSATISFIABLE) {
+                writeHead(out, "416 Requested Range Not Satisfiable", 0, "Content-Range: bytes */" + content.length);
+                return;
+            }
+            start = Integer.parseInt(StringUtils.substringBetween(range, "=", "-"));
+            String rangeEnd = StringUtils.substringAfter(range, "-");
+            end = rangeEnd.isEmpty() ? end : Math.min(end, Integer.parseInt(rangeEnd));
+            if (start > end) {
+                writeHead(out, "416 Requested Range Not Satisfiable", 0, "Content-Range: bytes */" + content.length);
+                return;
+            }
+            status = "206 Partial Content";
+            contentRange = "Content-Range: bytes " + start + "-" + end + "/" + content.length;
+        }
+        int length = end - start + 1;
+        Integer truncatedLength = "GET".equals(method) ? getTruncatedLength(path) : null;
+        // announce one more byte than sent when the whole content is sent, so that the body is still incomplete
+        writeHead(out, status, truncatedLength != null && truncatedLength >= length ? length + 1 : length, contentRange);
+        if ("GET".equals(method)) {
+            out.write(content, start, truncatedLength != null ? Math.min(truncatedLength, length) : length);
+        }
+        out.flush();
+    }
+
+    private Integer getTruncatedLength(String path) {
+        synchronized (truncatedResources) {
+            int[] truncation = truncatedResources.get(path);
+            if (truncation == null) {
+                return null;
+            }
+            if (--truncation[1] == 0) {
+                truncatedResources.remove(path);
+            }
+            return truncation[0];
+        }
+    }
+
+    private void writeHead(OutputStream out, String status, int contentLength, String header) throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+        head.append("Content-Length: ").append(contentLength).append("\r\n");
+        if (rangeMode != RangeMode.UNSATISFIABLE) {
+            head.append("Accept-Ranges: bytes\r\n");
+        }
+        if (header != null) {
+            head.append(header).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+}
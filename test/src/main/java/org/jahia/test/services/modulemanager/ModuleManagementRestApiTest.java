@@ -45,19 +45,25 @@ package org.jahia.test.services.modulemanager;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringUtils;
 import org.jahia.bin.Jahia;
+import org.jahia.modules.modulemanager.forge.Forge;
+import org.jahia.modules.modulemanager.forge.ForgeService;
 import org.jahia.osgi.BundleUtils;
 import org.jahia.osgi.FrameworkService;
+import org.jahia.services.SpringContextSingleton;
 import org.jahia.services.content.JCRTemplate;
 import org.jahia.services.modulemanager.persistence.jcr.BundleInfoJcrHelper;
 import org.jahia.test.JahiaTestCase;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.After;
+import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -75,11 +81,40 @@ public class ModuleManagementRestApiTest extends JahiaTestCase {
     private static final String MODULE_MANAGER_TEST_NAME = "module-manager-test";
     private static final String MODULE_MANAGER_TEST_FULL_NAME = (MODULE_MANAGER_TEST_GROUP + "/" + MODULE_MANAGER_TEST_NAME);
 
+    private static final String TEST_FORGE_GROUP = "org.jahia.test.forge";
+    private static final String[] TEST_FORGE_MODULES = {"delta", "Alpha", "charlie", "bravo", "echo"};
+
     private static String moduleManagerVersion;
+    private static ForgeTestServer forgeServer;
+    private static Forge testForge;
 
     @BeforeClass
     public static void oneTimeSetUp() throws Exception {
         moduleManagerVersion = getModuleManagerVersion();
+
+        // a forge of known modules, so that the catalog is never empty
+        forgeServer = new ForgeTestServer();
+        JSONObject[] modules = new JSONObject[TEST_FORGE_MODULES.length];
+        for (int i = 0; i < modules.length; i++) {
+            modules[i] = ForgeTestServer.module(TEST_FORGE_MODULES[i], TEST_FORGE_GROUP, ForgeTestServer.version("1.0.0",
+                    ForgeTestServer.COMPATIBLE_PLATFORM, "http://forge/" + TEST_FORGE_MODULES[i] + "-1.0.0.jar", null));
+        }
+        forgeServer.setCatalog("/forge", modules);
+        testForge = new Forge();
+        testForge.setId("module-manager-test-forge");
+        testForge.setUrl(forgeServer.getUrl("/forge"));
+        ForgeService forgeService = getForgeService();
+        forgeService.addForge(testForge);
+        forgeService.flushModules();
+        forgeService.loadModules();
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() throws Exception {
+        ForgeService forgeService = getForgeService();
+        forgeService.removeForge(testForge);
+        forgeService.flushModules();
+        forgeServer.stop();
     }
 
     @Before
@@ -211,6 +246,81 @@ public class ModuleManagementRestApiTest extends JahiaTestCase {
         }
     }
 
+    @Test
+    public void shouldPageForgeCatalog() throws Exception {
+        JSONObject firstPage = getForgeModules("groupId=" + TEST_FORGE_GROUP + "&sort=id&limit=500");
+        Assert.assertEquals(TEST_FORGE_MODULES.length, firstPage.getInt("total"));
+        JSONObject page = getForgeModules("groupId=" + TEST_FORGE_GROUP + "&sort=id&offset=1&limit=2");
+        Assert.assertEquals(TEST_FORGE_MODULES.length, page.getInt("total"));
+        Assert.assertEquals(1, page.getInt("offset"));
+        Assert.assertEquals(2, page.getInt("limit"));
+        JSONArray modules = page.getJSONArray("modules");
+        Assert.assertEquals(2, modules.length());
+        for (int i = 0; i < modules.length(); i++) {
+            Assert.assertEquals(firstPage.getJSONArray("modules").getJSONObject(i + 1).getString("id"), modules.getJSONObject(i).getString("id"));
+        }
+        // a page past the last module is empty
+        Assert.assertEquals(0, getForgeModules("groupId=" + TEST_FORGE_GROUP + "&offset=" + TEST_FORGE_MODULES.length).getJSONArray("modules").length());
+    }
+
+    @Test
+    public void shouldFilterForgeCatalogByGroup() throws Exception {
+        int total = getForgeModules("limit=0").getInt("total");
+        Assert.assertTrue(total >= TEST_FORGE_MODULES.length);
+        JSONObject page = getForgeModules("groupId=" + TEST_FORGE_GROUP + "&limit=500");
+        Assert.assertEquals(TEST_FORGE_MODULES.length, page.getInt("total"));
+        JSONArray modules = page.getJSONArray("modules");
+        Assert.assertEquals(TEST_FORGE_MODULES.length, modules.length());
+        for (int i = 0; i < modules.length(); i++) {
+            Assert.assertEquals(TEST_FORGE_GROUP, modules.getJSONObject(i).getString("groupId"));
+        }
+    }
+
+    @Test
+    public void shouldSortForgeCatalogByName() throws Exception {
+        verifyForgeModulesSortedByName(getForgeModules("groupId=" + TEST_FORGE_GROUP + "&sort=name&limit=500").getJSONArray("modules"), 1);
+        verifyForgeModulesSortedByName(getForgeModules("groupId=" + TEST_FORGE_GROUP + "&sort=name&order=desc&limit=500").getJSONArray("modules"), -1);
+        getAsText(getForgeModulesUrl("sort=size"), HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void shouldNotResendUnmodifiedForgeCatalogPage() throws Exception {
+        Map<String, List<String>> responseHeaders = new HashMap<>();
+        getAsText(getForgeModulesUrl("limit=10"), new HashMap<String, String>(), HttpServletResponse.SC_OK, responseHeaders);
+        String etag = getHeader(responseHeaders, "ETag");
+        Assert.assertNotNull(etag);
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        requestHeaders.put("If-None-Match", etag);
+        getAsText(getForgeModulesUrl("limit=10"), requestHeaders, HttpServletResponse.SC_NOT_MODIFIED, null);
+    }
+
+    private void verifyForgeModulesSortedByName(JSONArray modules, int direction) throws Exception {
+        Assert.assertEquals(TEST_FORGE_MODULES.length, modules.length());
+        for (int i = 1; i < modules.length(); i++) {
+            String previous = modules.getJSONObject(i - 1).optString("name");
+            String current = modules.getJSONObject(i).optString("name");
+            Assert.assertTrue(previous + " should not come before " + current, previous.compareToIgnoreCase(current) * direction <= 0);
+        }
+    }
+
+    private JSONObject getForgeModules(String query) throws Exception {
+        return new JSONObject(getAsText(getForgeModulesUrl(query)));
+    }
+
+    private static String getForgeModulesUrl(String query) {
+        return "/modules/api/bundles/_forge/modules?" + query;
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
     private void verifyModuleInfoRetrieval(String bundleKey) throws Exception {
         JSONObject response = getBundleInfo(bundleKey);
         verifyModuleInfo(response);
@@ -288,4 +398,8 @@ public class ModuleManagementRestApiTest extends JahiaTestCase {
         }
         return symbolicName + "/" + foundBundle.getVersion();
     }
+
+    private static ForgeService getForgeService() {
+        return (ForgeService) SpringContextSingleton.getBeanInModulesContext("forgeService");
+    }
 }